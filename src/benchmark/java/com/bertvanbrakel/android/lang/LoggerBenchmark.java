@@ -0,0 +1,85 @@
+package com.bertvanbrakel.android.lang;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of a log call at a level which is enabled (debug) and disabled
+ * (trace) on the console logger, with the message built by concatenation,
+ * from a {} pattern, and by a {@link MessageSupplier}. The console is swapped
+ * for a null stream so only the logger's own work is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoggerBenchmark {
+
+    private final Logger log = Logger.get(LoggerBenchmark.class);
+    private PrintStream stdout;
+    private int requestId = 1234;
+    private String url = "http://api.example.com/v1/users/1234";
+
+    @Setup
+    public void setUp() {
+        stdout = System.out;
+        System.setOut(new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void disabled() {
+        log.trace("Executing request " + requestId + " to " + url);
+    }
+
+    @Benchmark
+    public void disabledGuarded() {
+        if (log.isTraceEnabled()) {
+            log.trace("Executing request " + requestId + " to " + url);
+        }
+    }
+
+    @Benchmark
+    public void disabledPattern() {
+        log.trace("Executing request {} to {}", requestId, url);
+    }
+
+    @Benchmark
+    public void disabledSupplier() {
+        log.trace(new MessageSupplier() {
+            @Override
+            public String get() {
+                return "Executing request " + requestId + " to " + url;
+            }
+        });
+    }
+
+    @Benchmark
+    public void enabled() {
+        log.debug("Executing request " + requestId + " to " + url);
+    }
+
+    @Benchmark
+    public void enabledPattern() {
+        log.debug("Executing request {} to {}", requestId, url);
+    }
+}
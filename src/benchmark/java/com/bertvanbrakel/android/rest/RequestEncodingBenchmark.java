@@ -0,0 +1,75 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+import com.google.gson.Gson;
+
+/**
+ * Cost of building and writing out a POST body, form encoded against
+ * multipart, without any network
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestEncodingBenchmark {
+
+    @Param({ "1", "20" })
+    public int paramCount;
+
+    private final Gson gson = new Gson();
+    private RestRequest form;
+    private RestRequest multipart;
+    private RestRequest multipartWithFile;
+
+    @Setup
+    public void setUp() {
+        final RestRequest.Builder builder = RestRequest.newBuilder(RequestMethod.POST, "http://localhost/");
+        for (int i = 0; i < paramCount; i++) {
+            builder.param("param" + i, "some value & more " + i);
+        }
+        form = builder.build();
+        // a zero length binary part turns the same params into a multipart body
+        multipart = form.toBuilder().param("empty", new byte[0]).build();
+        multipartWithFile = form.toBuilder().param("file", new byte[64 * 1024]).build();
+    }
+
+    @Benchmark
+    public long form() throws RestClientException, IOException {
+        return write(form);
+    }
+
+    @Benchmark
+    public long multipart() throws RestClientException, IOException {
+        return write(multipart);
+    }
+
+    @Benchmark
+    public long multipartWith64kPart() throws RestClientException, IOException {
+        return write(multipartWithFile);
+    }
+
+    private long write(final RestRequest request) throws RestClientException, IOException {
+        final HttpEntityEnclosingRequest http = (HttpEntityEnclosingRequest) request.toHttpRequest(gson);
+        http.getEntity().writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+        return http.getEntity().getContentLength();
+    }
+}
@@ -0,0 +1,121 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+/**
+ * Round trips through the client to an embedded jetty server on localhost:
+ * throughput, and latency percentiles from the sample time mode. Use -t to
+ * run with more client threads.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RestClientBenchmark {
+
+    /** Size of the response body in bytes */
+    @Param({ "1024", "1048576" })
+    public int payloadSize;
+
+    @Param({ "apache", "urlconnection" })
+    public String transport;
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+    private PrintStream stdout;
+
+    private RestRequest get;
+    private RestRequest post;
+
+    @Setup
+    public void setUp() throws Exception {
+        // the console logger would otherwise measure the terminal
+        stdout = System.out;
+        System.setOut(new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM));
+
+        final byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                IOUtils.copy(req.getInputStream(), NullOutputStream.NULL_OUTPUT_STREAM);
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.setContentLength(payload.length);
+                resp.getOutputStream().write(payload);
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+        // measure the transport, not the cost of compressing on localhost
+        client.setAcceptCompressed(false);
+        if ("urlconnection".equals(transport)) {
+            client.setTransport(new UrlConnectionTransport());
+        }
+
+        get = client.newRequest(RequestMethod.GET).param("id", 1234).param("q", "some query").build();
+        post = client.newRequest(RequestMethod.POST).param("id", 1234).param("name", "some name").param("description", "a longer piece of text")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public String get() throws RestClientException {
+        return client.execute(get).getBody();
+    }
+
+    @Benchmark
+    public String postForm() throws RestClientException {
+        return client.execute(post).getBody();
+    }
+
+    /**
+     * Reading the body off the connection without buffering it
+     */
+    @Benchmark
+    public long getStreaming() throws RestClientException, IOException {
+        final StreamingResponse response = client.executeStreaming(get);
+        try {
+            final InputStream in = response.getInputStream();
+            return IOUtils.copyLarge(in, NullOutputStream.NULL_OUTPUT_STREAM);
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+/**
+ * Building a GET url with a few params: the previous URLEncoder based code,
+ * the encoder writing into the reused buffer, a compiled {@link UrlTemplate},
+ * and executing the same immutable request again. Run with -prof gc to see the
+ * allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlBuildingBenchmark {
+
+    private static final String BASE = "http://api.example.com/v1/users/";
+
+    private final UrlTemplate template = UrlTemplate.compile(BASE + "{user}/items?type={type}&q={q}&page={page}");
+    private RestRequest request;
+    private List<NameValuePair> params;
+
+    @Setup
+    public void setUp() {
+        request = RestRequest.newBuilder(RequestMethod.GET, BASE + "1234/items").param("type", "photo").param("q", "sunset over the sea")
+                .param("page", 3).build();
+        params = request.getParams();
+    }
+
+    @Benchmark
+    public String urlEncoder() throws UnsupportedEncodingException {
+        final StringBuilder queryString = new StringBuilder();
+        queryString.append("?");
+        for (final NameValuePair p : params) {
+            if (queryString.length() > 1) {
+                queryString.append("&");
+            }
+            queryString.append(p.getName());
+            queryString.append('=');
+            queryString.append(URLEncoder.encode(p.getValue(), "UTF-8"));
+        }
+        return BASE + "1234/items" + queryString.toString();
+    }
+
+    @Benchmark
+    public String encodeIntoBuffer() {
+        final StringBuilder sb = UrlEncoding.buffer().append(BASE).append("1234/items");
+        char separator = '?';
+        for (final NameValuePair p : params) {
+            sb.append(separator).append(p.getName()).append('=');
+            UrlEncoding.appendQuery(sb, p.getValue());
+            separator = '&';
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String template() {
+        return template.expand("1234", "photo", "sunset over the sea", 3);
+    }
+
+    @Benchmark
+    public Object repeatedRequest() throws RestClientException {
+        return request.toHttpRequest(null).getURI();
+    }
+}
@@ -0,0 +1,294 @@
+package com.bertvanbrakel.android.lang;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes console log output on a background thread, so logging threads
+ * don't queue on the stream's lock or wait on its io. Events go into a
+ * bounded lock free ring buffer, and the writer thread formats and prints
+ * them in batches. What happens when the buffer is full is down to the
+ * {@link OverflowPolicy}. Set via {@link Logger#setConsoleWriter(AsyncLogWriter)}.
+ * <p>
+ * The writer thread is a daemon, so {@link #close()} the writer to be sure
+ * the last events are written before the JVM exits.
+ */
+public final class AsyncLogWriter {
+
+    private static final Logger LOG = Logger.get(AsyncLogWriter.class);
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH = 256;
+    /** Longest the writer sleeps without checking for events */
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    public static enum OverflowPolicy {
+        /** Wait for space, slowing logging threads down to the writer's pace */
+        BLOCK,
+        /** Drop the event */
+        DROP,
+        /**
+         * Drop events below the writer's discard level, wait for space for
+         * the rest
+         */
+        DISCARD_BELOW_LEVEL
+    }
+
+    private final PrintStream out;
+    private final OverflowPolicy policy;
+    private final LogLevel discardBelow;
+
+    // a bounded multi producer, single consumer queue. Each slot's sequence
+    // says whether it's free to write (== position) or holds an event to read
+    // (== position + 1)
+    private final int mask;
+    private final AtomicReferenceArray<Event> events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // writer thread only, then guarded by this once it has stopped
+    private long head;
+    private long droppedReported;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean idle;
+    private volatile boolean closed;
+    private volatile long closeTimeoutMillis;
+
+    public AsyncLogWriter() {
+        this(System.out, DEFAULT_CAPACITY, OverflowPolicy.DISCARD_BELOW_LEVEL, LogLevel.WARN);
+    }
+
+    /**
+     * Create and start the writer
+     *
+     * @param capacity events buffered, rounded up to a power of two of at
+     *            least 2
+     * @param discardBelow for {@link OverflowPolicy#DISCARD_BELOW_LEVEL}, the
+     *            least level which is never dropped
+     */
+    public AsyncLogWriter(final PrintStream out, final int capacity, final OverflowPolicy policy, final LogLevel discardBelow) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, got " + capacity);
+        }
+        this.out = out;
+        this.policy = policy;
+        this.discardBelow = discardBelow;
+        // a slot's sequence can't tell free from full with only one
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.events = new AtomicReferenceArray<Event>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "AsyncLogWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue the event, or write it directly once the writer is closed
+     */
+    void write(final LogLevel level, final String logName, final String msg, final Throwable t) {
+        final Event e = new Event(level, logName, msg, t);
+        if (closed) {
+            writeNow(e);
+            return;
+        }
+        while (!offer(e)) {
+            if (policy == OverflowPolicy.DROP || (policy == OverflowPolicy.DISCARD_BELOW_LEVEL && !discardBelow.isEnabledFor(level))) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (closed || Thread.currentThread() == thread) {
+                writeNow(e);
+                return;
+            }
+            LockSupport.parkNanos(this, FULL_BACKOFF_NANOS);
+        }
+        if (closed && Thread.currentThread() != thread) {
+            // the writer may have done its last drain before the event went in
+            drainAfterClose();
+        } else if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Write out what's left in the buffer on the calling thread, once the
+     * writer thread is gone so there's still a single reader. A writer which
+     * outlives the close timeout is stuck on the stream, and writes the rest
+     * itself if it ever gets going again
+     */
+    private void drainAfterClose() {
+        try {
+            thread.join(closeTimeoutMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (thread.isAlive()) {
+            return;
+        }
+        synchronized (this) {
+            final StringBuilder batch = new StringBuilder();
+            while (writeBatch(batch)) {
+                // drain
+            }
+        }
+    }
+
+    private boolean offer(final Event e) {
+        long pos = tail.get();
+        for (;;) {
+            final int index = (int) pos & mask;
+            final long seq = sequences.get(index);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    events.set(index, e);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (seq < pos) {
+                // the slot from a lap ago hasn't been written out yet
+                return false;
+            } else {
+                // another thread claimed it
+                pos = tail.get();
+            }
+        }
+    }
+
+    private Event poll() {
+        final int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        final Event e = events.get(index);
+        events.set(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return e;
+    }
+
+    private void writeLoop() {
+        final StringBuilder batch = new StringBuilder(4096);
+        for (;;) {
+            if (writeBatch(batch)) {
+                continue;
+            }
+            if (closed) {
+                // events offered just before closing
+                while (writeBatch(batch)) {
+                    // drain
+                }
+                return;
+            }
+            idle = true;
+            if (sequences.get((int) head & mask) != head + 1) {
+                LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    /**
+     * @return true if anything was written
+     */
+    private boolean writeBatch(final StringBuilder batch) {
+        batch.setLength(0);
+        int count = 0;
+        Event e;
+        while (count < MAX_BATCH && (e = poll()) != null) {
+            format(batch, e);
+            count++;
+        }
+        final long droppedNow = dropped.get();
+        if (droppedNow != droppedReported) {
+            batch.append("[WARN] ").append(LOG.getLogName()).append(" Dropped ").append(droppedNow - droppedReported)
+                    .append(" log events, the buffer was full").append(NEWLINE);
+            droppedReported = droppedNow;
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+        try {
+            out.print(batch);
+            out.flush();
+        } catch (final RuntimeException ex) {
+            // nothing else to tell, keep going
+        }
+        return true;
+    }
+
+    private void writeNow(final Event e) {
+        final StringBuilder sb = new StringBuilder();
+        format(sb, e);
+        out.print(sb);
+        out.flush();
+    }
+
+    private static void format(final StringBuilder sb, final Event e) {
+        sb.append('[').append(e.level.name()).append("] ").append(e.logName).append(' ').append(e.msg).append(NEWLINE);
+        if (e.t != null) {
+            final StringWriter trace = new StringWriter();
+            e.t.printStackTrace(new PrintWriter(trace));
+            sb.append(trace.getBuffer());
+        }
+    }
+
+    /**
+     * @return number of events dropped as the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Write out the buffered events and stop the writer thread, waiting up to
+     * the given time for it. Events logged afterwards are written directly
+     */
+    public void close(final long timeout, final TimeUnit unit) throws InterruptedException {
+        closeTimeoutMillis = Math.max(1, unit.toMillis(timeout));
+        closed = true;
+        LockSupport.unpark(thread);
+        thread.join(closeTimeoutMillis);
+    }
+
+    public void close() throws InterruptedException {
+        close(5, TimeUnit.SECONDS);
+    }
+
+    private static class Event {
+        final LogLevel level;
+        final String logName;
+        final String msg;
+        final Throwable t;
+
+        Event(final LogLevel level, final String logName, final String msg, final Throwable t) {
+            this.level = level;
+            this.logName = logName;
+            this.msg = msg;
+            this.t = t;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.bertvanbrakel.android.lang;
+
+/**
+ * Where {@link Logger}s send their output, set via
+ * {@link Logger#setAdapter(LogAdapter)}. Shared by all loggers, so must be
+ * thread safe. Only called for levels which are enabled.
+ */
+public interface LogAdapter {
+
+    /**
+     * @param t to log with its stack trace, or null
+     */
+    void log(LogLevel level, String logName, String msg, Throwable t);
+
+    /**
+     * @return the level of loggers {@link LogLevels} sets none for
+     */
+    LogLevel getDefaultLevel(String logName);
+}
@@ -0,0 +1,17 @@
+package com.bertvanbrakel.android.lang;
+
+/**
+ * Log levels, least severe first
+ */
+public enum LogLevel {
+    TRACE, DEBUG, INFO, WARN, ERROR, FATAL,
+    /** As a logger's level, logs nothing */
+    OFF;
+
+    /**
+     * @return true if a logger at this level logs messages at the given level
+     */
+    public boolean isEnabledFor(final LogLevel l) {
+        return l.ordinal() >= ordinal();
+    }
+}
@@ -0,0 +1,149 @@
+package com.bertvanbrakel.android.lang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The log levels, by {@link Logger#getLogName() log name}. A name without a
+ * level of its own takes its nearest parent's, so "athena" covers
+ * "athena.RestClient", then the root level's. Without any, a logger uses its
+ * platform's level: DEBUG on a normal JVM, and on Android whatever
+ * {@code Log.isLoggable} says.
+ * <p>
+ * Loggers cache their level, so checking it is a single volatile read of the
+ * generation, which every change bumps. Thread safe.
+ */
+public final class LogLevels {
+
+    private static final String ROOT_KEY = "log4j.rootLogger";
+    private static final String LOGGER_PREFIX = "log4j.logger.";
+
+    // copied on write
+    private static volatile Map<String, LogLevel> levels = Collections.emptyMap();
+    private static volatile LogLevel rootLevel;
+    private static volatile int generation;
+
+    private LogLevels() {
+    }
+
+    /**
+     * @param level the level for the name and those below it, or null to
+     *            inherit its parent's again
+     */
+    public static synchronized void setLevel(final String name, final LogLevel level) {
+        final Map<String, LogLevel> copy = new HashMap<String, LogLevel>(levels);
+        if (level == null) {
+            copy.remove(name);
+        } else {
+            copy.put(name, level);
+        }
+        levels = copy;
+        generation++;
+    }
+
+    /**
+     * @param level the level of names without one of their own, or null for
+     *            the platform's
+     */
+    public static synchronized void setRootLevel(final LogLevel level) {
+        rootLevel = level;
+        generation++;
+    }
+
+    /**
+     * @return the level the name inherits, or null if none is set
+     */
+    public static LogLevel getLevel(final String name) {
+        final Map<String, LogLevel> current = levels;
+        String n = name;
+        while (true) {
+            final LogLevel level = current.get(n);
+            if (level != null) {
+                return level;
+            }
+            final int dot = n.lastIndexOf('.');
+            if (dot < 0) {
+                return rootLevel;
+            }
+            n = n.substring(0, dot);
+        }
+    }
+
+    /**
+     * Replace the levels with those in log4j style properties:
+     *
+     * <pre>
+     * log4j.rootLogger=INFO,stdout
+     * log4j.logger.athena.RestClient=DEBUG
+     * </pre>
+     *
+     * Appenders and other settings are ignored.
+     *
+     * @throws IllegalArgumentException for an unknown level, leaving the
+     *             levels unchanged
+     */
+    public static void configure(final Properties props) {
+        final Map<String, LogLevel> parsed = new HashMap<String, LogLevel>();
+        LogLevel root = null;
+        for (final String key : props.stringPropertyNames()) {
+            if (ROOT_KEY.equals(key)) {
+                root = parseLevel(key, props.getProperty(key));
+            } else if (key.startsWith(LOGGER_PREFIX)) {
+                parsed.put(key.substring(LOGGER_PREFIX.length()), parseLevel(key, props.getProperty(key)));
+            }
+        }
+        synchronized (LogLevels.class) {
+            levels = parsed;
+            rootLevel = root;
+            generation++;
+        }
+    }
+
+    /**
+     * {@link #configure(Properties)} from a properties file
+     */
+    public static void load(final InputStream in) throws IOException {
+        final Properties props = new Properties();
+        props.load(in);
+        configure(props);
+    }
+
+    /**
+     * Drop all the levels set, back to the platform's
+     */
+    public static void reset() {
+        configure(new Properties());
+    }
+
+    /**
+     * Have loggers look up their level again without changing any, e.g. after
+     * an Android log level was changed with setprop
+     */
+    public static synchronized void refresh() {
+        generation++;
+    }
+
+    static int generation() {
+        return generation;
+    }
+
+    /**
+     * @param value a level, optionally followed by a comma and appenders
+     */
+    private static LogLevel parseLevel(final String key, final String value) {
+        final int comma = value.indexOf(',');
+        final String name = (comma < 0 ? value : value.substring(0, comma)).trim().toUpperCase();
+        if ("ALL".equals(name)) {
+            return LogLevel.TRACE;
+        }
+        try {
+            return LogLevel.valueOf(name);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown log level '%s' for %s", value, key));
+        }
+    }
+}
@@ -1,29 +1,81 @@
 package com.bertvanbrakel.android.lang;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 import android.util.Log;
 
+/**
+ * Logs to Android's log, or the console on a normal JVM, or the
+ * {@link LogAdapter} set. Besides plain messages, takes a pattern with {}
+ * placeholders and its arguments, or a {@link MessageSupplier}, which are
+ * only turned into a message if the level is enabled, so calls needn't be
+ * guarded with isXxxEnabled(). A throwable passed as the last of more
+ * arguments than placeholders is logged with its stack trace.
+ */
 public final class Logger {
 
-    private final LogAdapter adapter;
-    private final String logName;
+    private static final String CLASS_PREFIX = "athena.";
+
     private static final boolean inNormalJdk;
+    private static final LogAdapter platformAdapter;
+    private static volatile LogAdapter adapter;
+    private static volatile AsyncLogWriter consoleWriter;
+    private static final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<String, Logger>();
+
+    private final String logName;
+    // racy but safe, a stale read only means resolving the level again
+    private CachedLevel cachedLevel = new CachedLevel(LogLevel.TRACE, -1);
 
     static {
         inNormalJdk = !System.getProperty("java.vm.name").toLowerCase().contains("dalvik");
+        if (inNormalJdk) {
+            //possibly using a normal JVM to run tests in
+            platformAdapter = new ConsoleLogAdapter();
+        } else {
+            platformAdapter = new AndroidLogAdapter();
+        }
+        adapter = platformAdapter;
     }
 
+    /**
+     * Prefer {@link #get(Class)}, which shares instances
+     */
     public Logger(final Class<?> klass) {
-        this("athena." + klass.getSimpleName());
+        this(CLASS_PREFIX + klass.getSimpleName());
     }
 
+    /**
+     * Prefer {@link #get(String)}, which shares instances
+     */
     public Logger(final String logName) {
         this.logName = trimToMaxLength(logName);
-        if (inNormalJdk) {
-            //possibly using a normal JVM to run tests in
-            adapter = new ConsoleLogAdapter(ConsoleLogAdapter.LEVEL.DEBUG,this.logName);
-        } else {
-            adapter = new AndroidLogAdapter(this.logName);
+    }
+
+    /**
+     * @return the shared logger named after the class, as
+     *         {@link #Logger(Class)} names it
+     */
+    public static Logger get(final Class<?> klass) {
+        return get(CLASS_PREFIX + klass.getSimpleName());
+    }
+
+    /**
+     * @return the shared logger for the name. Loggers are kept for good, so
+     *         don't make up names per request
+     */
+    public static Logger get(final String logName) {
+        Logger log = loggers.get(logName);
+        if (log == null) {
+            final Logger created = new Logger(logName);
+            log = loggers.putIfAbsent(logName, created);
+            if (log == null) {
+                log = created;
+            }
         }
+        return log;
     }
 
     /**
@@ -55,341 +107,459 @@ public final class Logger {
     }
 
     public void trace(final String msg) {
-        adapter.trace(msg);
+        if (isTraceEnabled()) {
+            adapter.log(LogLevel.TRACE, logName, msg, null);
+        }
     }
 
     public void trace(final String msg, final Throwable t) {
-        adapter.trace(msg, t);
+        if (isTraceEnabled()) {
+            adapter.log(LogLevel.TRACE, logName, msg, t);
+        }
     }
 
-    public void debug(final String msg) {
-        adapter.debug(msg);
+    public void trace(final String pattern, final Object arg) {
+        if (isTraceEnabled()) {
+            log(LogLevel.TRACE, pattern, arg);
+        }
     }
 
-    public void debug(final String msg, final Throwable t) {
-        adapter.debug(msg, t);
+    public void trace(final String pattern, final Object arg1, final Object arg2) {
+        if (isTraceEnabled()) {
+            log(LogLevel.TRACE, pattern, arg1, arg2);
+        }
     }
 
-    public void info(final String msg) {
-        adapter.info(msg);
+    public void trace(final String pattern, final Object... args) {
+        if (isTraceEnabled()) {
+            log(LogLevel.TRACE, pattern, args);
+        }
     }
 
-    public void info(final String msg, final Throwable t) {
-        adapter.info(msg, t);
+    public void trace(final MessageSupplier msg) {
+        if (isTraceEnabled()) {
+            adapter.log(LogLevel.TRACE, logName, msg.get(), null);
+        }
     }
 
-    public void warn(final String msg) {
-        adapter.warn(msg);
+    public void trace(final MessageSupplier msg, final Throwable t) {
+        if (isTraceEnabled()) {
+            adapter.log(LogLevel.TRACE, logName, msg.get(), t);
+        }
     }
 
-    public void warn(final String msg, final Throwable t) {
-        adapter.warn(msg, t);
+    public void debug(final String msg) {
+        if (isDebugEnabled()) {
+            adapter.log(LogLevel.DEBUG, logName, msg, null);
+        }
     }
 
-    public void error(final String msg) {
-        adapter.error(msg);
+    public void debug(final String msg, final Throwable t) {
+        if (isDebugEnabled()) {
+            adapter.log(LogLevel.DEBUG, logName, msg, t);
+        }
     }
 
-    public void error(final String msg, final Throwable t) {
-        adapter.error(msg, t);
+    public void debug(final String pattern, final Object arg) {
+        if (isDebugEnabled()) {
+            log(LogLevel.DEBUG, pattern, arg);
+        }
     }
 
-    public void fatal(final String msg) {
-        adapter.fatal(msg);
+    public void debug(final String pattern, final Object arg1, final Object arg2) {
+        if (isDebugEnabled()) {
+            log(LogLevel.DEBUG, pattern, arg1, arg2);
+        }
     }
 
-    public void fatal(final String msg, final Throwable t) {
-        adapter.fatal(msg, t);
+    public void debug(final String pattern, final Object... args) {
+        if (isDebugEnabled()) {
+            log(LogLevel.DEBUG, pattern, args);
+        }
     }
 
-    public boolean isTraceEnabled() {
-        return adapter.isTraceEnabled();
+    public void debug(final MessageSupplier msg) {
+        if (isDebugEnabled()) {
+            adapter.log(LogLevel.DEBUG, logName, msg.get(), null);
+        }
     }
 
-    public boolean isDebugEnabled() {
-        return adapter.isDebugEnabled();
+    public void debug(final MessageSupplier msg, final Throwable t) {
+        if (isDebugEnabled()) {
+            adapter.log(LogLevel.DEBUG, logName, msg.get(), t);
+        }
     }
 
-    public boolean isInfoEnabled() {
-        return adapter.isInfoEnabled();
+    public void info(final String msg) {
+        if (isInfoEnabled()) {
+            adapter.log(LogLevel.INFO, logName, msg, null);
+        }
     }
 
-    public boolean isWarnEnabled() {
-        return adapter.isWarnEnabled();
+    public void info(final String msg, final Throwable t) {
+        if (isInfoEnabled()) {
+            adapter.log(LogLevel.INFO, logName, msg, t);
+        }
     }
 
-    public boolean isErrorEnabled() {
-        return adapter.isErrorEnabled();
+    public void info(final String pattern, final Object arg) {
+        if (isInfoEnabled()) {
+            log(LogLevel.INFO, pattern, arg);
+        }
     }
 
-    public boolean isFatalEnabled() {
-        return adapter.isFatalEnabled();
+    public void info(final String pattern, final Object arg1, final Object arg2) {
+        if (isInfoEnabled()) {
+            log(LogLevel.INFO, pattern, arg1, arg2);
+        }
     }
 
-    public String getLogName() {
-        return logName;
+    public void info(final String pattern, final Object... args) {
+        if (isInfoEnabled()) {
+            log(LogLevel.INFO, pattern, args);
+        }
     }
 
-    private static interface LogAdapter {
-        public void trace(final String msg);
-
-        public void trace(final String msg, final Throwable t);
-
-        public void debug(final String msg);
-
-        public void debug(final String msg, final Throwable t);
-
-        public void info(final String msg);
-
-        public void info(final String msg, final Throwable t);
-
-        public void warn(final String msg);
-
-        public void warn(final String msg, final Throwable t);
-
-        public void error(final String msg);
-
-        public void error(final String msg, final Throwable t);
-
-        public void fatal(final String msg);
-
-        public void fatal(final String msg, final Throwable t);
-
-        public boolean isTraceEnabled();
+    public void info(final MessageSupplier msg) {
+        if (isInfoEnabled()) {
+            adapter.log(LogLevel.INFO, logName, msg.get(), null);
+        }
+    }
 
-        public boolean isDebugEnabled();
+    public void info(final MessageSupplier msg, final Throwable t) {
+        if (isInfoEnabled()) {
+            adapter.log(LogLevel.INFO, logName, msg.get(), t);
+        }
+    }
 
-        public boolean isInfoEnabled();
+    public void warn(final String msg) {
+        if (isWarnEnabled()) {
+            adapter.log(LogLevel.WARN, logName, msg, null);
+        }
+    }
 
-        public boolean isWarnEnabled();
+    public void warn(final String msg, final Throwable t) {
+        if (isWarnEnabled()) {
+            adapter.log(LogLevel.WARN, logName, msg, t);
+        }
+    }
 
-        public boolean isErrorEnabled();
+    public void warn(final String pattern, final Object arg) {
+        if (isWarnEnabled()) {
+            log(LogLevel.WARN, pattern, arg);
+        }
+    }
 
-        public boolean isFatalEnabled();
+    public void warn(final String pattern, final Object arg1, final Object arg2) {
+        if (isWarnEnabled()) {
+            log(LogLevel.WARN, pattern, arg1, arg2);
+        }
     }
 
-    private static class AndroidLogAdapter implements LogAdapter {
-        private final String logName;
+    public void warn(final String pattern, final Object... args) {
+        if (isWarnEnabled()) {
+            log(LogLevel.WARN, pattern, args);
+        }
+    }
 
-        public AndroidLogAdapter(final String logName) {
-            this.logName = logName;
+    public void warn(final MessageSupplier msg) {
+        if (isWarnEnabled()) {
+            adapter.log(LogLevel.WARN, logName, msg.get(), null);
         }
+    }
 
-        @Override
-        public void trace(final String msg) {
-            Log.v(logName, msg);
+    public void warn(final MessageSupplier msg, final Throwable t) {
+        if (isWarnEnabled()) {
+            adapter.log(LogLevel.WARN, logName, msg.get(), t);
         }
+    }
 
-        @Override
-        public void trace(final String msg, final Throwable t) {
-            Log.v(logName, msg, t);
+    public void error(final String msg) {
+        if (isErrorEnabled()) {
+            adapter.log(LogLevel.ERROR, logName, msg, null);
         }
+    }
 
-        @Override
-        public void debug(final String msg) {
-            Log.d(logName, msg);
+    public void error(final String msg, final Throwable t) {
+        if (isErrorEnabled()) {
+            adapter.log(LogLevel.ERROR, logName, msg, t);
         }
+    }
 
-        @Override
-        public void debug(final String msg, final Throwable t) {
-            Log.d(logName, msg, t);
+    public void error(final String pattern, final Object arg) {
+        if (isErrorEnabled()) {
+            log(LogLevel.ERROR, pattern, arg);
         }
+    }
 
-        @Override
-        public void info(final String msg) {
-            Log.i(logName, msg);
+    public void error(final String pattern, final Object arg1, final Object arg2) {
+        if (isErrorEnabled()) {
+            log(LogLevel.ERROR, pattern, arg1, arg2);
         }
+    }
 
-        @Override
-        public void info(final String msg, final Throwable t) {
-            Log.i(logName, msg, t);
+    public void error(final String pattern, final Object... args) {
+        if (isErrorEnabled()) {
+            log(LogLevel.ERROR, pattern, args);
         }
+    }
 
-        @Override
-        public void warn(final String msg) {
-            Log.w(logName, msg);
+    public void error(final MessageSupplier msg) {
+        if (isErrorEnabled()) {
+            adapter.log(LogLevel.ERROR, logName, msg.get(), null);
         }
+    }
 
-        @Override
-        public void warn(final String msg, final Throwable t) {
-            Log.w(logName, msg, t);
+    public void error(final MessageSupplier msg, final Throwable t) {
+        if (isErrorEnabled()) {
+            adapter.log(LogLevel.ERROR, logName, msg.get(), t);
         }
+    }
 
-        @Override
-        public void error(final String msg) {
-            Log.e(logName, msg);
+    public void fatal(final String msg) {
+        if (isFatalEnabled()) {
+            adapter.log(LogLevel.FATAL, logName, msg, null);
         }
+    }
 
-        @Override
-        public void error(final String msg, final Throwable t) {
-            Log.e(logName, msg, t);
+    public void fatal(final String msg, final Throwable t) {
+        if (isFatalEnabled()) {
+            adapter.log(LogLevel.FATAL, logName, msg, t);
         }
+    }
 
-        @Override
-        public void fatal(final String msg) {
-            Log.wtf(logName, msg);
+    public void fatal(final String pattern, final Object arg) {
+        if (isFatalEnabled()) {
+            log(LogLevel.FATAL, pattern, arg);
         }
+    }
 
-        @Override
-        public void fatal(final String msg, final Throwable t) {
-            Log.wtf(logName, msg, t);
+    public void fatal(final String pattern, final Object arg1, final Object arg2) {
+        if (isFatalEnabled()) {
+            log(LogLevel.FATAL, pattern, arg1, arg2);
         }
+    }
 
-        @Override
-        public boolean isTraceEnabled() {
-            return Log.isLoggable(logName, Log.VERBOSE);
+    public void fatal(final String pattern, final Object... args) {
+        if (isFatalEnabled()) {
+            log(LogLevel.FATAL, pattern, args);
         }
+    }
 
-        @Override
-        public boolean isDebugEnabled() {
-            return Log.isLoggable(logName, Log.DEBUG);
+    public void fatal(final MessageSupplier msg) {
+        if (isFatalEnabled()) {
+            adapter.log(LogLevel.FATAL, logName, msg.get(), null);
         }
+    }
 
-        @Override
-        public boolean isInfoEnabled() {
-            return Log.isLoggable(logName, Log.INFO);
+    public void fatal(final MessageSupplier msg, final Throwable t) {
+        if (isFatalEnabled()) {
+            adapter.log(LogLevel.FATAL, logName, msg.get(), t);
         }
+    }
 
-        @Override
-        public boolean isWarnEnabled() {
-            return Log.isLoggable(logName, Log.WARN);
+    private void log(final LogLevel l, final String pattern, final Object arg) {
+        final LogAdapter a = adapter;
+        if (a instanceof PatternLogAdapter) {
+            ((PatternLogAdapter) a).log(l, logName, pattern, new Object[] { arg }, null);
+        } else {
+            a.log(l, logName, MessageFormatter.format(pattern, arg), null);
         }
+    }
 
-        @Override
-        public boolean isErrorEnabled() {
-            return Log.isLoggable(logName, Log.ERROR);
+    private void log(final LogLevel l, final String pattern, final Object arg1, final Object arg2) {
+        final LogAdapter a = adapter;
+        final Throwable t = MessageFormatter.trailingThrowable(pattern, arg1, arg2);
+        if (a instanceof PatternLogAdapter) {
+            ((PatternLogAdapter) a).log(l, logName, pattern, t == null ? new Object[] { arg1, arg2 } : new Object[] { arg1 }, t);
+        } else {
+            a.log(l, logName, MessageFormatter.format(pattern, arg1, arg2), t);
         }
+    }
 
-        @Override
-        public boolean isFatalEnabled() {
-            return true;
+    private void log(final LogLevel l, final String pattern, final Object[] args) {
+        final LogAdapter a = adapter;
+        final Throwable t = MessageFormatter.trailingThrowable(pattern, args);
+        if (a instanceof PatternLogAdapter) {
+            ((PatternLogAdapter) a).log(l, logName, pattern, t == null ? args : Arrays.copyOf(args, args.length - 1), t);
+        } else {
+            a.log(l, logName, MessageFormatter.format(pattern, args), t);
         }
     }
 
-    private static class ConsoleLogAdapter implements LogAdapter {
+    public boolean isTraceEnabled() {
+        return level().isEnabledFor(LogLevel.TRACE);
+    }
 
-        static enum LEVEL {
-            TRACE(0), DEBUG(1), INFO(2), WARN(3), ERROR(5), FATAL(6);
-            final int level;
+    public boolean isDebugEnabled() {
+        return level().isEnabledFor(LogLevel.DEBUG);
+    }
 
-            LEVEL(final int level) {
-                this.level = level;
-            }
+    public boolean isInfoEnabled() {
+        return level().isEnabledFor(LogLevel.INFO);
+    }
 
-            public boolean isEnabledForLevel(final LEVEL l) {
-                return l.level >= this.level;
-            }
-        }
+    public boolean isWarnEnabled() {
+        return level().isEnabledFor(LogLevel.WARN);
+    }
 
-        private final String logName;
-        private final LEVEL level;
+    public boolean isErrorEnabled() {
+        return level().isEnabledFor(LogLevel.ERROR);
+    }
 
-        public ConsoleLogAdapter(final LEVEL level, final String logName) {
-            this.logName = logName;
-            this.level = level;
-        }
+    public boolean isFatalEnabled() {
+        return level().isEnabledFor(LogLevel.FATAL);
+    }
 
-        @Override
-        public void trace(final String msg) {
-            log(LEVEL.TRACE, msg, null);
-        }
+    public String getLogName() {
+        return logName;
+    }
 
-        @Override
-        public void trace(final String msg, final Throwable t) {
-            log(LEVEL.TRACE, msg, t);
-        }
+    /**
+     * @return a logger which logs each message at most maxPerWindow times in
+     *         each window, summing up the rest. See {@link ThrottledLogger}
+     */
+    public ThrottledLogger throttled(final int maxPerWindow, final long window, final TimeUnit unit) {
+        return new ThrottledLogger(this, maxPerWindow, unit.toMillis(window), 1);
+    }
 
-        @Override
-        public void debug(final String msg) {
-            log(LEVEL.DEBUG, msg, null);
-        }
+    boolean isEnabled(final LogLevel l) {
+        return level().isEnabledFor(l);
+    }
 
-        @Override
-        public void debug(final String msg, final Throwable t) {
-            log(LEVEL.DEBUG, msg, t);
-        }
+    void write(final LogLevel l, final String msg, final Throwable t) {
+        adapter.log(l, logName, msg, t);
+    }
 
-        @Override
-        public void info(final String msg) {
-            log(LEVEL.INFO, msg, null);
-        }
+    /**
+     * @return the level set in {@link LogLevels}, or else the adapter's.
+     *         Only looked up again once the levels have changed
+     */
+    public LogLevel getLevel() {
+        return level();
+    }
 
-        @Override
-        public void info(final String msg, final Throwable t) {
-            log(LEVEL.INFO, msg, t);
+    private LogLevel level() {
+        CachedLevel cached = cachedLevel;
+        final int generation = LogLevels.generation();
+        if (cached.generation != generation) {
+            final LogLevel configured = LogLevels.getLevel(logName);
+            cached = new CachedLevel(configured != null ? configured : adapter.getDefaultLevel(logName), generation);
+            cachedLevel = cached;
         }
+        return cached.level;
+    }
 
-        @Override
-        public void warn(final String msg) {
-            log(LEVEL.WARN, msg, null);
-        }
+    /**
+     * Send all log output to the adapter, or null to go back to the
+     * platform's
+     */
+    public static void setAdapter(final LogAdapter logAdapter) {
+        adapter = logAdapter == null ? platformAdapter : logAdapter;
+        // levels may default differently
+        LogLevels.refresh();
+    }
 
-        @Override
-        public void warn(final String msg, final Throwable t) {
-            log(LEVEL.WARN, msg, t);
-        }
+    public static LogAdapter getAdapter() {
+        return adapter;
+    }
 
-        @Override
-        public void error(final String msg) {
-            log(LEVEL.ERROR, msg, null);
-        }
+    /**
+     * @return the adapter logging to Android's log, or the console on a
+     *         normal JVM
+     */
+    public static LogAdapter getPlatformAdapter() {
+        return platformAdapter;
+    }
 
-        @Override
-        public void error(final String msg, final Throwable t) {
-            log(LEVEL.ERROR, msg, t);
-        }
+    /**
+     * Hand console output to the writer's background thread rather than
+     * printing on the logging thread. Null to print directly again. Has no
+     * effect on Android, which logs via {@link Log}
+     */
+    public static void setConsoleWriter(final AsyncLogWriter writer) {
+        consoleWriter = writer;
+    }
 
-        @Override
-        public void fatal(final String msg) {
-            log(LEVEL.FATAL, msg, null);
-        }
+    public static AsyncLogWriter getConsoleWriter() {
+        return consoleWriter;
+    }
 
-        @Override
-        public void fatal(final String msg, final Throwable t) {
-            log(LEVEL.FATAL, msg, t);
-        }
+    private static final class CachedLevel {
+        final LogLevel level;
+        final int generation;
 
-        @Override
-        public boolean isTraceEnabled() {
-            return isEnabled(LEVEL.TRACE);
+        CachedLevel(final LogLevel level, final int generation) {
+            this.level = level;
+            this.generation = generation;
         }
+    }
 
-        @Override
-        public boolean isDebugEnabled() {
-            return isEnabled(LEVEL.DEBUG);
-        }
+    private static class AndroidLogAdapter implements LogAdapter {
 
         @Override
-        public boolean isInfoEnabled() {
-            return isEnabled(LEVEL.INFO);
+        public void log(final LogLevel level, final String logName, final String msg, final Throwable t) {
+            switch (level) {
+            case TRACE:
+                Log.v(logName, msg, t);
+                break;
+            case DEBUG:
+                Log.d(logName, msg, t);
+                break;
+            case INFO:
+                Log.i(logName, msg, t);
+                break;
+            case WARN:
+                Log.w(logName, msg, t);
+                break;
+            case ERROR:
+                Log.e(logName, msg, t);
+                break;
+            default:
+                Log.wtf(logName, msg, t);
+                break;
+            }
         }
 
-        @Override
-        public boolean isWarnEnabled() {
-            return isEnabled(LEVEL.WARN);
+        /**
+         * The least level Android's log would have us log, by default INFO.
+         * Read once per change of {@link LogLevels}, not on every check
+         */
+        @Override
+        public LogLevel getDefaultLevel(final String logName) {
+            if (Log.isLoggable(logName, Log.VERBOSE)) {
+                return LogLevel.TRACE;
+            } else if (Log.isLoggable(logName, Log.DEBUG)) {
+                return LogLevel.DEBUG;
+            } else if (Log.isLoggable(logName, Log.INFO)) {
+                return LogLevel.INFO;
+            } else if (Log.isLoggable(logName, Log.WARN)) {
+                return LogLevel.WARN;
+            } else if (Log.isLoggable(logName, Log.ERROR)) {
+                return LogLevel.ERROR;
+            }
+            return LogLevel.FATAL;
         }
+    }
 
-        @Override
-        public boolean isErrorEnabled() {
-            return isEnabled(LEVEL.ERROR);
-        }
+    private static class ConsoleLogAdapter implements LogAdapter {
 
         @Override
-        public boolean isFatalEnabled() {
-            return isEnabled(LEVEL.FATAL);
-        }
-
-        private boolean isEnabled(final LEVEL l) {
-            return this.level.isEnabledForLevel(l);
+        public void log(final LogLevel l, final String logName, final String msg, final Throwable t) {
+            final AsyncLogWriter writer = consoleWriter;
+            if (writer != null) {
+                writer.write(l, logName, msg, t);
+                return;
+            }
+            System.out.println("[" + l.name() + "] " + logName + " " + msg);
+            if (t != null) {
+                t.printStackTrace(System.out);
+            }
         }
 
-        private void log(final LEVEL l, final String msg, final Throwable t) {
-            if (this.level.isEnabledForLevel(l)) {
-                System.out.println("[" + l.name() + "] " + logName + " " + msg);
-                if (t != null) {
-                    t.printStackTrace(System.out);
-                }
-            }
+        @Override
+        public LogLevel getDefaultLevel(final String logName) {
+            return LogLevel.DEBUG;
         }
     }
 
@@ -0,0 +1,118 @@
+package com.bertvanbrakel.android.lang;
+
+import java.util.Arrays;
+
+/**
+ * Fills the {}s of a log pattern with the arguments, in order. Builds into
+ * a per thread buffer, so all that's allocated is the message itself.
+ * Placeholders without an argument are left as is, and arguments without a
+ * placeholder ignored. Reentrant, for arguments which log in their toString.
+ */
+final class MessageFormatter {
+
+    private static final int MAX_KEPT_CAPACITY = 4096;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private MessageFormatter() {
+    }
+
+    static String format(final String pattern, final Object arg) {
+        return format(pattern, 1, arg, null, null);
+    }
+
+    static String format(final String pattern, final Object arg1, final Object arg2) {
+        return format(pattern, 2, arg1, arg2, null);
+    }
+
+    static String format(final String pattern, final Object[] args) {
+        return format(pattern, args == null ? 0 : args.length, null, null, args);
+    }
+
+    /**
+     * @return the last argument if it's a throwable no placeholder takes, to
+     *         log with its stack trace, else null
+     */
+    static Throwable trailingThrowable(final String pattern, final Object[] args) {
+        if (args == null || args.length == 0 || !(args[args.length - 1] instanceof Throwable)) {
+            return null;
+        }
+        return placeholders(pattern, args.length) < args.length ? (Throwable) args[args.length - 1] : null;
+    }
+
+    static Throwable trailingThrowable(final String pattern, final Object arg1, final Object arg2) {
+        return arg2 instanceof Throwable && placeholders(pattern, 2) < 2 ? (Throwable) arg2 : null;
+    }
+
+    /**
+     * @return the number of placeholders, counting no further than max
+     */
+    private static int placeholders(final String pattern, final int max) {
+        if (pattern == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = pattern.indexOf("{}"); i >= 0 && count < max; i = pattern.indexOf("{}", i + 2)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String format(final String pattern, final int argCount, final Object arg1, final Object arg2, final Object[] args) {
+        if (pattern == null) {
+            return null;
+        }
+        StringBuilder sb = BUFFER.get();
+        if (sb == null) {
+            // in use further up the stack, by an argument whose toString formats
+            return build(new StringBuilder(256), pattern, argCount, arg1, arg2, args);
+        }
+        if (sb.capacity() > MAX_KEPT_CAPACITY) {
+            // don't hold on to the buffer of one huge message
+            sb = new StringBuilder(256);
+        }
+        sb.setLength(0);
+        BUFFER.set(null);
+        try {
+            return build(sb, pattern, argCount, arg1, arg2, args);
+        } finally {
+            BUFFER.set(sb);
+        }
+    }
+
+    private static String build(final StringBuilder sb, final String pattern, final int argCount, final Object arg1, final Object arg2, final Object[] args) {
+        int from = 0;
+        for (int i = 0; i < argCount; i++) {
+            final int at = pattern.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            sb.append(pattern, from, at);
+            appendArg(sb, args != null ? args[i] : (i == 0 ? arg1 : arg2));
+            from = at + 2;
+        }
+        if (from == 0) {
+            return pattern;
+        }
+        sb.append(pattern, from, pattern.length());
+        return sb.toString();
+    }
+
+    private static void appendArg(final StringBuilder sb, final Object arg) {
+        if (arg instanceof Object[]) {
+            sb.append(Arrays.deepToString((Object[]) arg));
+        } else {
+            try {
+                sb.append(arg);
+            } catch (final RuntimeException e) {
+                // a broken toString shouldn't break the caller
+                sb.append('[').append(arg.getClass().getName()).append(".toString() threw ").append(e).append(']');
+            }
+        }
+    }
+}
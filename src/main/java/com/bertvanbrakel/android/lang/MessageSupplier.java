@@ -0,0 +1,8 @@
+package com.bertvanbrakel.android.lang;
+
+/**
+ * Builds a log message, only called if the level is enabled
+ */
+public interface MessageSupplier {
+    String get();
+}
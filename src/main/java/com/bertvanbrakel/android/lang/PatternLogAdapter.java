@@ -0,0 +1,16 @@
+package com.bertvanbrakel.android.lang;
+
+/**
+ * A {@link LogAdapter} which takes {} patterns and their arguments as they
+ * are, rather than formatted, e.g. to store the pattern once and the
+ * arguments per event
+ */
+public interface PatternLogAdapter extends LogAdapter {
+
+    /**
+     * @param args the arguments, without the trailing throwable if there was
+     *            one
+     * @param t to log with its stack trace, or null
+     */
+    void log(LogLevel level, String logName, String pattern, Object[] args, Throwable t);
+}
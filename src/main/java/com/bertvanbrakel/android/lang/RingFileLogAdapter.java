@@ -0,0 +1,350 @@
+package com.bertvanbrakel.android.lang;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Logs compact binary records into a fixed size, memory mapped file, so
+ * logging at trace level can be left on. When the file is full the oldest
+ * records are overwritten. Logger names and patterns are written once, to a
+ * dictionary file alongside, and records refer to them by id. Arguments are
+ * kept as they are, bar objects, which are stored as their toString. Render
+ * the records as text with {@link RingFileLogDecoder}.
+ * <p>
+ * Mapped pages are written out by the OS even if the process dies. Records
+ * are kept across restarts, as long as the capacity is unchanged. Thread
+ * safe.
+ *
+ * <pre>
+ * Logger.setAdapter(new RingFileLogAdapter(new File(dir, "trace.log"), 8 * 1024 * 1024, LogLevel.TRACE));
+ * </pre>
+ */
+public final class RingFileLogAdapter implements PatternLogAdapter {
+
+    static final int MAGIC = 0x4C4F4752; // LOGR
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    /** Offset in the header of the next write position */
+    static final int WRITE_POS_OFFSET = 12;
+    static final short RECORD_MAGIC = 0x4C47;
+    /** length, magic, position, time, level, name id, template id, arg count */
+    static final int RECORD_HEADER_SIZE = 4 + 2 + 8 + 8 + 1 + 4 + 4 + 1;
+    /** Template id of a record whose message is stored inline */
+    static final int INLINE_MESSAGE = -1;
+    static final String DICTIONARY_SUFFIX = ".dict";
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_INT = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_DOUBLE = 4;
+    static final byte TYPE_BOOLEAN = 5;
+
+    private static final int MAX_RECORD_SIZE = 8192;
+    private static final int MAX_STRING_BYTES = 2048;
+    private static final int MAX_ARGS = 32;
+    /** Beyond this patterns are stored inline, in case they aren't constants */
+    private static final int MAX_DICTIONARY_SIZE = 16384;
+
+    private static final ThreadLocal<ByteBuffer> RECORD = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_RECORD_SIZE);
+        }
+    };
+
+    private final File file;
+    private final LogLevel defaultLevel;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private final DataOutputStream dictionary;
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    // guarded by this
+    private long writePos;
+    private int nextId;
+    private boolean closed;
+
+    /**
+     * Open the ring file, creating it, or starting afresh if it was made
+     * with a different capacity
+     *
+     * @param capacity bytes of records kept, at least 64KB
+     * @param defaultLevel the level of loggers {@link LogLevels} sets none for
+     */
+    public RingFileLogAdapter(final File file, final int capacity, final LogLevel defaultLevel) throws IOException {
+        if (capacity < 64 * 1024) {
+            throw new IllegalArgumentException("Capacity must be at least 64KB, got " + capacity);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.defaultLevel = defaultLevel;
+        final File dictFile = dictionaryFile(file);
+        raf = new RandomAccessFile(file, "rw");
+        final boolean existing = raf.length() == HEADER_SIZE + capacity;
+        raf.setLength(HEADER_SIZE + capacity);
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        if (existing && map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getInt(8) == capacity && dictFile.exists()) {
+            writePos = map.getLong(WRITE_POS_OFFSET);
+            readDictionary(dictFile);
+        } else {
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, capacity);
+            map.putLong(WRITE_POS_OFFSET, 0);
+            dictFile.delete();
+        }
+        dictionary = new DataOutputStream(new FileOutputStream(dictFile, true));
+    }
+
+    static File dictionaryFile(final File file) {
+        return new File(file.getPath() + DICTIONARY_SUFFIX);
+    }
+
+    private void readDictionary(final File dictFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dictFile)));
+        try {
+            while (true) {
+                final int id = in.readInt();
+                ids.put(in.readUTF(), id);
+                nextId = Math.max(nextId, id + 1);
+            }
+        } catch (final EOFException e) {
+            // done, a partly written last entry is dropped
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void log(final LogLevel level, final String logName, final String msg, final Throwable t) {
+        final int nameId = id(logName);
+        if (nameId == INLINE_MESSAGE) {
+            return;
+        }
+        final ByteBuffer kept = RECORD.get();
+        final ByteBuffer record = startRecord(kept, level, nameId, INLINE_MESSAGE);
+        try {
+            record.put((byte) 1);
+            putArg(record, msg, 0);
+            finishRecord(record, t);
+        } finally {
+            RECORD.set(kept);
+        }
+    }
+
+    @Override
+    public void log(final LogLevel level, final String logName, final String pattern, final Object[] args, final Throwable t) {
+        final int nameId = id(logName);
+        if (nameId == INLINE_MESSAGE) {
+            return;
+        }
+        final int templateId = id(pattern);
+        final ByteBuffer kept = RECORD.get();
+        final ByteBuffer record = startRecord(kept, level, nameId, templateId);
+        try {
+            final int count = args == null ? 0 : Math.min(args.length, MAX_ARGS);
+            if (templateId == INLINE_MESSAGE) {
+                record.put((byte) (count + 1));
+                putArg(record, pattern, count);
+            } else {
+                record.put((byte) count);
+            }
+            for (int i = 0; i < count; i++) {
+                putArg(record, args[i], count - i - 1);
+            }
+            finishRecord(record, t);
+        } finally {
+            RECORD.set(kept);
+        }
+    }
+
+    /**
+     * Take the thread's record buffer, which is null while an argument's
+     * toString logs in the middle of a record, and fill it up to the arg
+     * count. Put the buffer back once done
+     */
+    private static ByteBuffer startRecord(final ByteBuffer kept, final LogLevel level, final int nameId, final int templateId) {
+        final ByteBuffer record = kept == null ? ByteBuffer.allocate(MAX_RECORD_SIZE) : kept;
+        RECORD.set(null);
+        record.clear();
+        // length and position are filled in when copied to the file
+        record.position(4 + 2 + 8);
+        record.putLong(System.currentTimeMillis());
+        record.put((byte) level.ordinal());
+        record.putInt(nameId);
+        record.putInt(templateId);
+        return record;
+    }
+
+    private void finishRecord(final ByteBuffer record, final Throwable t) {
+        // putArg leaves at least the flag byte, but the trace needs a length too
+        if (t == null || record.remaining() < 3) {
+            record.put((byte) 0);
+        } else {
+            record.put((byte) 1);
+            final StringWriter trace = new StringWriter();
+            t.printStackTrace(new PrintWriter(trace));
+            putString(record, trace.toString(), record.remaining() - 2);
+        }
+        record.flip();
+        append(record);
+    }
+
+    private synchronized void append(final ByteBuffer record) {
+        if (closed) {
+            return;
+        }
+        final int length = record.limit();
+        int offset = (int) (writePos % capacity);
+        if (capacity - offset < length) {
+            // records don't wrap, so mark the rest of the lap unused
+            if (capacity - offset >= 4) {
+                map.putInt(HEADER_SIZE + offset, 0);
+            }
+            writePos += capacity - offset;
+            offset = 0;
+        }
+        record.putInt(0, length);
+        record.putShort(4, RECORD_MAGIC);
+        record.putLong(6, writePos);
+        map.position(HEADER_SIZE + offset);
+        map.put(record);
+        writePos += length;
+        map.putLong(WRITE_POS_OFFSET, writePos);
+    }
+
+    /**
+     * @return the dictionary id of the string, or {@link #INLINE_MESSAGE} if
+     *         the dictionary is full or can't be written
+     */
+    private int id(final String s) {
+        final Integer id = ids.get(s);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            final Integer raced = ids.get(s);
+            if (raced != null) {
+                return raced;
+            }
+            if (closed || ids.size() >= MAX_DICTIONARY_SIZE || s.length() > MAX_STRING_BYTES) {
+                return INLINE_MESSAGE;
+            }
+            try {
+                // written before any record refers to it
+                dictionary.writeInt(nextId);
+                dictionary.writeUTF(s);
+                dictionary.flush();
+            } catch (final IOException e) {
+                return INLINE_MESSAGE;
+            }
+            ids.put(s, nextId);
+            return nextId++;
+        }
+    }
+
+    /**
+     * @param argsLeft args still to write after this one. A byte is kept for
+     *            each, and for the throwable flag, so the record never
+     *            overflows
+     */
+    private static void putArg(final ByteBuffer record, final Object arg, final int argsLeft) {
+        final int room = record.remaining() - argsLeft - 1;
+        if (room < 16) {
+            // out of room, the decoder shows the rest as null
+            record.put(TYPE_NULL);
+        } else if (arg == null) {
+            record.put(TYPE_NULL);
+        } else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            record.put(TYPE_INT).putInt(((Number) arg).intValue());
+        } else if (arg instanceof Long) {
+            record.put(TYPE_LONG).putLong((Long) arg);
+        } else if (arg instanceof Double || arg instanceof Float) {
+            record.put(TYPE_DOUBLE).putDouble(((Number) arg).doubleValue());
+        } else if (arg instanceof Boolean) {
+            record.put(TYPE_BOOLEAN).put((byte) ((Boolean) arg ? 1 : 0));
+        } else {
+            record.put(TYPE_STRING);
+            putString(record, arg instanceof Object[] ? Arrays.deepToString((Object[]) arg) : String.valueOf(arg), Math.min(MAX_STRING_BYTES, room - 3));
+        }
+    }
+
+    /**
+     * Write the string as a length and modified UTF-8, as
+     * {@link DataOutputStream#writeUTF(String)} does, truncated to fit
+     */
+    static void putString(final ByteBuffer record, final String s, final int maxBytes) {
+        final int limit = Math.min(maxBytes, record.remaining() - 2);
+        final int lengthAt = record.position();
+        record.position(lengthAt + 2);
+        int written = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                if (written + 1 > limit) {
+                    break;
+                }
+                record.put((byte) c);
+                written++;
+            } else if (c <= 0x07FF) {
+                if (written + 2 > limit) {
+                    break;
+                }
+                record.put((byte) (0xC0 | c >> 6 & 0x1F));
+                record.put((byte) (0x80 | c & 0x3F));
+                written += 2;
+            } else {
+                if (written + 3 > limit) {
+                    break;
+                }
+                record.put((byte) (0xE0 | c >> 12 & 0x0F));
+                record.put((byte) (0x80 | c >> 6 & 0x3F));
+                record.put((byte) (0x80 | c & 0x3F));
+                written += 3;
+            }
+        }
+        record.putShort(lengthAt, (short) written);
+    }
+
+    @Override
+    public LogLevel getDefaultLevel(final String logName) {
+        return defaultLevel;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Write out the mapped pages and close the files. Later records are
+     * ignored
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        map.force();
+        try {
+            dictionary.close();
+        } finally {
+            raf.close();
+        }
+    }
+}
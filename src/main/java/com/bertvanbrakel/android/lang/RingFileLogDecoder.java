@@ -0,0 +1,204 @@
+package com.bertvanbrakel.android.lang;
+
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.HEADER_SIZE;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.INLINE_MESSAGE;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.MAGIC;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.RECORD_HEADER_SIZE;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.RECORD_MAGIC;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.TYPE_BOOLEAN;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.TYPE_DOUBLE;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.TYPE_INT;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.TYPE_LONG;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.TYPE_STRING;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.VERSION;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.WRITE_POS_OFFSET;
+import static com.bertvanbrakel.android.lang.RingFileLogAdapter.dictionaryFile;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders the records of a {@link RingFileLogAdapter} file as text, oldest
+ * first:
+ *
+ * <pre>
+ * java -cp ... com.bertvanbrakel.android.lang.RingFileLogDecoder trace.log
+ * </pre>
+ */
+public final class RingFileLogDecoder {
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    private RingFileLogDecoder() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RingFileLogDecoder <ring file>");
+            System.exit(1);
+        }
+        final Writer out = new OutputStreamWriter(System.out);
+        decode(new File(args[0]), out);
+        out.flush();
+    }
+
+    /**
+     * Write the records out as lines of text
+     *
+     * @return the number of records
+     */
+    public static int decode(final File file, final Appendable out) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+                throw new IOException("Not a ring log file: " + file);
+            }
+            if (buf.getInt(4) != VERSION) {
+                throw new IOException("Unsupported ring log version " + buf.getInt(4) + " in " + file);
+            }
+            return decode(buf, readDictionary(dictionaryFile(file)), out);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int decode(final ByteBuffer buf, final Map<Integer, String> dictionary, final Appendable out) throws IOException {
+        final int capacity = buf.getInt(8);
+        final long writePos = buf.getLong(WRITE_POS_OFFSET);
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        // records older than a lap have been overwritten, at least in part
+        long pos = Math.max(0, writePos - capacity);
+        // whether pos is known to be where a record starts
+        boolean synced = false;
+        int count = 0;
+        while (pos < writePos) {
+            final int offset = (int) (pos % capacity);
+            if (offset == 0) {
+                synced = true;
+            }
+            final int left = capacity - offset;
+            if (left < RECORD_HEADER_SIZE || (synced && buf.getInt(HEADER_SIZE + offset) == 0)) {
+                // the unused end of a lap
+                pos += left;
+                continue;
+            }
+            final int length = buf.getInt(HEADER_SIZE + offset);
+            if (length > RECORD_HEADER_SIZE && length <= left && pos + length <= writePos && buf.getShort(HEADER_SIZE + offset + 4) == RECORD_MAGIC
+                    && buf.getLong(HEADER_SIZE + offset + 6) == pos) {
+                final ByteBuffer record = buf.duplicate();
+                // past the length, magic and position
+                record.position(HEADER_SIZE + offset + 14);
+                record.limit(HEADER_SIZE + offset + length);
+                render(record, dictionary, dateFormat, out);
+                count++;
+                pos += length;
+                synced = true;
+            } else if (synced) {
+                throw new IOException("Corrupt record at " + pos);
+            } else {
+                // find the first whole record after the overwritten part
+                pos++;
+            }
+        }
+        return count;
+    }
+
+    private static void render(final ByteBuffer record, final Map<Integer, String> dictionary, final SimpleDateFormat dateFormat, final Appendable out)
+            throws IOException {
+        final long time = record.getLong();
+        final int level = record.get();
+        final String name = dictionary.get(record.getInt());
+        final int templateId = record.getInt();
+        int argCount = record.get() & 0xFF;
+        String pattern;
+        if (templateId == INLINE_MESSAGE) {
+            pattern = (String) readArg(record);
+            argCount--;
+        } else {
+            pattern = dictionary.get(templateId);
+            if (pattern == null) {
+                pattern = "<unknown pattern " + templateId + ">";
+            }
+        }
+        final Object[] args = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = readArg(record);
+        }
+        out.append(dateFormat.format(new Date(time))).append(" [").append(level >= 0 && level < LEVELS.length ? LEVELS[level].name() : "?")
+                .append("] ").append(name).append(' ').append(MessageFormatter.format(pattern, args)).append(NEWLINE);
+        if (record.get() != 0) {
+            out.append(getString(record));
+        }
+    }
+
+    private static Object readArg(final ByteBuffer record) {
+        final byte type = record.get();
+        switch (type) {
+        case TYPE_STRING:
+            return getString(record);
+        case TYPE_INT:
+            return record.getInt();
+        case TYPE_LONG:
+            return record.getLong();
+        case TYPE_DOUBLE:
+            return record.getDouble();
+        case TYPE_BOOLEAN:
+            return record.get() != 0;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Read a string written by {@link RingFileLogAdapter#putString}
+     */
+    private static String getString(final ByteBuffer record) {
+        final int length = record.getShort() & 0xFFFF;
+        final int end = record.position() + length;
+        final StringBuilder sb = new StringBuilder(length);
+        while (record.position() < end) {
+            final int b = record.get() & 0xFF;
+            if (b < 0x80) {
+                sb.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                sb.append((char) ((b & 0x1F) << 6 | record.get() & 0x3F));
+            } else {
+                sb.append((char) ((b & 0x0F) << 12 | (record.get() & 0x3F) << 6 | record.get() & 0x3F));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Map<Integer, String> readDictionary(final File dictFile) throws IOException {
+        final Map<Integer, String> dictionary = new HashMap<Integer, String>();
+        if (!dictFile.exists()) {
+            return dictionary;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dictFile)));
+        try {
+            while (true) {
+                final int id = in.readInt();
+                dictionary.put(id, in.readUTF());
+            }
+        } catch (final EOFException e) {
+            return dictionary;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.bertvanbrakel.android.lang;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs through a {@link Logger}, but keeps a message that keeps recurring,
+ * e.g. the same failure on every request while a backend is down, from
+ * flooding the log. Messages are told apart by their text, or pattern:
+ * <ul>
+ * <li>each message is logged at most a number of times per window. The rest
+ * are counted, and the count is added to the next one logged, as "N similar
+ * messages suppressed". If none is, the count is logged on its own once the
+ * window is over, the next time anything is logged through here</li>
+ * <li>only the first in a window is logged with its stack trace, the others
+ * with just the exception</li>
+ * <li>optionally only a random sample of messages is logged at all</li>
+ * </ul>
+ * Created via {@link Logger#throttled(int, long, TimeUnit)} and kept in a
+ * static field, like a logger. Thread safe.
+ */
+public final class ThrottledLogger {
+
+    /** Past this many distinct messages the windows start afresh */
+    private static final int MAX_KEYS = 1024;
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final Logger log;
+    private final int maxPerWindow;
+    private final long windowMillis;
+    private final double sampleRate;
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+    /** When to next look for windows which ended with messages suppressed */
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    ThrottledLogger(final Logger log, final int maxPerWindow, final long windowMillis, final double sampleRate) {
+        if (maxPerWindow < 1 || windowMillis < 0 || sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException(String.format("Invalid limits, %d per %dms sampling %s", maxPerWindow, windowMillis, sampleRate));
+        }
+        this.log = log;
+        this.maxPerWindow = maxPerWindow;
+        this.windowMillis = windowMillis;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return a logger with the same limits which only logs the given
+     *         fraction of messages, picked at random, e.g. 0.01 for one in a
+     *         hundred
+     */
+    public ThrottledLogger sampled(final double rate) {
+        return new ThrottledLogger(log, maxPerWindow, windowMillis, rate);
+    }
+
+    public void trace(final String msg) {
+        log(LogLevel.TRACE, msg, null, null);
+    }
+
+    public void trace(final String msg, final Throwable t) {
+        log(LogLevel.TRACE, msg, null, t);
+    }
+
+    public void trace(final String pattern, final Object... args) {
+        log(LogLevel.TRACE, pattern, args, MessageFormatter.trailingThrowable(pattern, args));
+    }
+
+    public void debug(final String msg) {
+        log(LogLevel.DEBUG, msg, null, null);
+    }
+
+    public void debug(final String msg, final Throwable t) {
+        log(LogLevel.DEBUG, msg, null, t);
+    }
+
+    public void debug(final String pattern, final Object... args) {
+        log(LogLevel.DEBUG, pattern, args, MessageFormatter.trailingThrowable(pattern, args));
+    }
+
+    public void info(final String msg) {
+        log(LogLevel.INFO, msg, null, null);
+    }
+
+    public void info(final String msg, final Throwable t) {
+        log(LogLevel.INFO, msg, null, t);
+    }
+
+    public void info(final String pattern, final Object... args) {
+        log(LogLevel.INFO, pattern, args, MessageFormatter.trailingThrowable(pattern, args));
+    }
+
+    public void warn(final String msg) {
+        log(LogLevel.WARN, msg, null, null);
+    }
+
+    public void warn(final String msg, final Throwable t) {
+        log(LogLevel.WARN, msg, null, t);
+    }
+
+    public void warn(final String pattern, final Object... args) {
+        log(LogLevel.WARN, pattern, args, MessageFormatter.trailingThrowable(pattern, args));
+    }
+
+    public void error(final String msg) {
+        log(LogLevel.ERROR, msg, null, null);
+    }
+
+    public void error(final String msg, final Throwable t) {
+        log(LogLevel.ERROR, msg, null, t);
+    }
+
+    public void error(final String pattern, final Object... args) {
+        log(LogLevel.ERROR, pattern, args, MessageFormatter.trailingThrowable(pattern, args));
+    }
+
+    public void fatal(final String msg) {
+        log(LogLevel.FATAL, msg, null, null);
+    }
+
+    public void fatal(final String msg, final Throwable t) {
+        log(LogLevel.FATAL, msg, null, t);
+    }
+
+    public void fatal(final String pattern, final Object... args) {
+        log(LogLevel.FATAL, pattern, args, MessageFormatter.trailingThrowable(pattern, args));
+    }
+
+    private void log(final LogLevel level, final String pattern, final Object[] args, final Throwable t) {
+        if (!log.isEnabled(level) || (sampleRate < 1 && RANDOM.get().nextDouble() >= sampleRate)) {
+            return;
+        }
+        final Window w = window(pattern);
+        final long now = System.currentTimeMillis();
+        final int suppressed;
+        final boolean first;
+        synchronized (w) {
+            if (now - w.start >= windowMillis) {
+                w.start = now;
+                w.logged = 0;
+            }
+            if (w.logged >= maxPerWindow) {
+                w.suppressed++;
+                w.level = level;
+                first = false;
+                suppressed = -1;
+            } else {
+                first = w.logged == 0;
+                w.logged++;
+                suppressed = w.suppressed;
+                w.suppressed = 0;
+            }
+        }
+        if (suppressed >= 0) {
+            write(level, pattern, args, t, suppressed, first);
+        }
+        // after, so this message's own count goes with it instead
+        sweep(now);
+    }
+
+    private void write(final LogLevel level, final String pattern, final Object[] args, final Throwable t, final int suppressed, final boolean first) {
+        String msg = args == null ? pattern : MessageFormatter.format(pattern, args);
+        if (suppressed > 0) {
+            msg = msg + " (" + suppressed + " similar messages suppressed)";
+        }
+        if (t == null || first) {
+            log.write(level, msg, t);
+        } else {
+            log.write(level, msg + ": " + t, null);
+        }
+    }
+
+    private Window window(final String key) {
+        Window w = windows.get(key);
+        if (w == null) {
+            if (windows.size() >= MAX_KEYS) {
+                // messages which vary too much to be limited this way
+                logSuppressed();
+                windows.clear();
+            }
+            final Window created = new Window();
+            w = windows.putIfAbsent(key, created);
+            if (w == null) {
+                w = created;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Log the counts of the windows which are over, at most once a window, and
+     * drop those with nothing to report
+     */
+    private void sweep(final long now) {
+        final long due = nextSweep.get();
+        if (now < due || !nextSweep.compareAndSet(due, now + windowMillis)) {
+            return;
+        }
+        for (final Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, Window> e = it.next();
+            final Window w = e.getValue();
+            final int suppressed;
+            final LogLevel level;
+            synchronized (w) {
+                if (now - w.start < windowMillis) {
+                    continue;
+                }
+                suppressed = w.suppressed;
+                level = w.level;
+                w.suppressed = 0;
+            }
+            if (suppressed > 0) {
+                reportSuppressed(level, suppressed, e.getKey());
+            } else {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Log how many of each message were suppressed and not yet reported, as
+     * that's otherwise only done when the message is next logged. Call now
+     * and then, e.g. when the backend is back
+     */
+    public void logSuppressed() {
+        for (final Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, Window> e = it.next();
+            final int suppressed;
+            final LogLevel level;
+            synchronized (e.getValue()) {
+                suppressed = e.getValue().suppressed;
+                level = e.getValue().level;
+                e.getValue().suppressed = 0;
+            }
+            if (suppressed > 0) {
+                reportSuppressed(level, suppressed, e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Log the count at the level of the messages suppressed, so it shows
+     * wherever they would have
+     */
+    private void reportSuppressed(final LogLevel level, final int suppressed, final String key) {
+        if (log.isEnabled(level)) {
+            log.write(level, MessageFormatter.format("{} similar messages suppressed: {}", suppressed, key), null);
+        }
+    }
+
+    private static class Window {
+        // guarded by this
+        long start = Long.MIN_VALUE / 2;
+        int logged;
+        int suppressed;
+        /** of the last message suppressed */
+        LogLevel level;
+    }
+}
@@ -0,0 +1,144 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per host circuit breaker. After a number of consecutive failures (I/O
+ * errors or 5xx responses) the circuit for that host opens and requests to it
+ * fail fast with a {@link CircuitOpenException} instead of piling onto a
+ * struggling server. Once the open period has passed a single trial request is
+ * let through, closing the circuit again if it succeeds.
+ * <p>
+ * Thread safe, and can be shared by many clients.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MS = 30000;
+
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private final int failureThreshold;
+    private final long openMs;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MS);
+    }
+
+    /**
+     * @param failureThreshold consecutive failures which open the circuit
+     * @param openMs how long the circuit stays open before a trial request
+     */
+    public CircuitBreaker(final int failureThreshold, final long openMs) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be at least 1, got " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    /**
+     * Called before sending a request
+     *
+     * @throws CircuitOpenException if the circuit is open, or half open with
+     *             the trial request still in progress
+     */
+    void acquire(final String host) throws CircuitOpenException {
+        final Circuit c = circuits.get(host);
+        if (c != null) {
+            c.acquire(host);
+        }
+    }
+
+    void recordSuccess(final String host) {
+        final Circuit c = circuits.get(host);
+        if (c != null) {
+            c.recordSuccess();
+        }
+    }
+
+    void recordFailure(final String host) {
+        Circuit c = circuits.get(host);
+        if (c == null) {
+            final Circuit created = new Circuit();
+            c = circuits.putIfAbsent(host, created);
+            if (c == null) {
+                c = created;
+            }
+        }
+        c.recordFailure();
+    }
+
+    /**
+     * Called when a request ends without telling anything about the host,
+     * e.g. it was cancelled. Lets the next trial request through if this was
+     * one
+     */
+    void release(final String host) {
+        final Circuit c = circuits.get(host);
+        if (c != null) {
+            c.release();
+        }
+    }
+
+    public State getState(final String host) {
+        final Circuit c = circuits.get(host);
+        return c == null ? State.CLOSED : c.getState();
+    }
+
+    /**
+     * Close all circuits
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+    private class Circuit {
+        private State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private boolean trialInFlight;
+
+        synchronized void acquire(final String host) throws CircuitOpenException {
+            if (state == State.CLOSED) {
+                return;
+            }
+            final long waited = System.currentTimeMillis() - openedAt;
+            if (state == State.OPEN && waited >= openMs) {
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN && !trialInFlight) {
+                trialInFlight = true;
+                return;
+            }
+            throw new CircuitOpenException(host, Math.max(0, openMs - waited));
+        }
+
+        synchronized void recordSuccess() {
+            state = State.CLOSED;
+            failures = 0;
+            trialInFlight = false;
+        }
+
+        synchronized void recordFailure() {
+            failures++;
+            if (state == State.HALF_OPEN || failures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+            trialInFlight = false;
+        }
+
+        synchronized void release() {
+            trialInFlight = false;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown instead of sending a request to a host whose {@link CircuitBreaker}
+ * is open
+ */
+public class CircuitOpenException extends RestClientException {
+
+    private static final long serialVersionUID = -2811364170735924105L;
+
+    private final String host;
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(final String host, final long retryAfterMillis) {
+        super("Circuit open for " + host + ", not sending requests for another " + retryAfterMillis + "ms");
+        this.host = host;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return how long until a trial request will be let through
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
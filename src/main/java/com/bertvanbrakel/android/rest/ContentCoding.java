@@ -0,0 +1,262 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Transparent gzip/deflate content coding of request and response bodies,
+ * counting the bytes before and after (de)compression
+ */
+final class ContentCoding {
+
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private ContentCoding() {
+        // static helpers only
+    }
+
+    /**
+     * Advertise compressed response support, unless the caller set their own
+     * Accept-Encoding
+     */
+    static void acceptCompressed(final HttpRequest request) {
+        if (!request.containsHeader(ACCEPT_ENCODING)) {
+            request.addHeader(ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+        }
+    }
+
+    /**
+     * Wrap any request body so it is counted, and gzipped if requested
+     */
+    static void encodeRequest(final HttpRequest request, final boolean compress, final TransferCounter counter) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        final HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+        final HttpEntity entity = enclosing.getEntity();
+        if (entity == null) {
+            return;
+        }
+        if (compress) {
+            counter.requestRaw = new CountingEntity(entity);
+            counter.requestWire = new CountingEntity(new GzipEntity(counter.requestRaw));
+        } else {
+            counter.requestWire = new CountingEntity(entity);
+            counter.requestRaw = counter.requestWire;
+        }
+        enclosing.setEntity(counter.requestWire);
+    }
+
+    /**
+     * Replace a gzip or deflate encoded response body with one which decodes
+     * it on the fly. The Content-Encoding and Content-Length headers are
+     * removed as they no longer describe the body
+     */
+    static void decodeResponse(final HttpResponse response, final TransferCounter counter) {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        final Header encoding = entity.getContentEncoding();
+        final String coding = encoding == null ? null : encoding.getValue().trim().toLowerCase();
+        final DecodingEntity decoding;
+        if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+            decoding = new DecodingEntity(entity, GZIP, counter);
+        } else if (DEFLATE.equals(coding)) {
+            decoding = new DecodingEntity(entity, DEFLATE, counter);
+        } else {
+            decoding = new DecodingEntity(entity, null, counter);
+        }
+        if (decoding.coding != null) {
+            response.removeHeaders(HTTP.CONTENT_ENCODING);
+            response.removeHeaders(HTTP.CONTENT_LEN);
+        }
+        response.setEntity(decoding);
+    }
+
+    /**
+     * Byte counts of a single request/response
+     */
+    static final class TransferCounter {
+        /** The timings of the attempt, or null if not timing */
+        volatile RequestTimings timings;
+        /** The dispatcher slot held by the attempt, or null if none */
+        volatile RestDispatcher.Slot slot;
+        private volatile CountingEntity requestRaw;
+        private volatile CountingEntity requestWire;
+        private volatile CountingInputStream responseRaw;
+        private volatile CountingInputStream responseWire;
+
+        TransferStats getStats() {
+            return new TransferStats(count(requestRaw), count(requestWire), count(responseRaw), count(responseWire));
+        }
+
+        private static long count(final CountingEntity e) {
+            return e == null ? 0 : e.count;
+        }
+
+        private static long count(final CountingInputStream in) {
+            return in == null ? 0 : in.getByteCount();
+        }
+    }
+
+    private static class CountingEntity extends HttpEntityWrapper {
+        private volatile long count;
+
+        CountingEntity(final HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            final CountingOutputStream counting = new CountingOutputStream(out);
+            try {
+                wrappedEntity.writeTo(counting);
+            } finally {
+                count = counting.getByteCount();
+            }
+        }
+    }
+
+    private static class GzipEntity extends HttpEntityWrapper {
+
+        GzipEntity(final HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return new BasicHeader(HTTP.CONTENT_ENCODING, GZIP);
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return true;
+        }
+
+        /**
+         * Only for callers which insist on pulling the content, this
+         * compresses the whole body into memory. The transport uses
+         * {@link #writeTo(OutputStream)}
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeTo(bytes);
+            return new ByteArrayInputStream(bytes.toByteArray());
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            final GZIPOutputStream gzip = new GZIPOutputStream(out);
+            wrappedEntity.writeTo(gzip);
+            // finish, but leave closing the connection stream to the caller
+            gzip.finish();
+        }
+    }
+
+    private static class DecodingEntity extends HttpEntityWrapper {
+        private final String coding;
+        private final TransferCounter counter;
+        private InputStream content;
+
+        DecodingEntity(final HttpEntity wrapped, final String coding, final TransferCounter counter) {
+            super(wrapped);
+            this.coding = coding;
+            this.counter = counter;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return coding == null ? super.getContentEncoding() : null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return coding == null ? super.getContentLength() : -1;
+        }
+
+        @Override
+        public synchronized InputStream getContent() throws IOException {
+            if (content == null) {
+                final CountingInputStream wire = new CountingInputStream(wrappedEntity.getContent());
+                counter.responseWire = wire;
+                if (coding == null) {
+                    counter.responseRaw = wire;
+                    content = wire;
+                } else {
+                    final CountingInputStream raw = new CountingInputStream(decode(wire));
+                    counter.responseRaw = raw;
+                    content = raw;
+                }
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            final InputStream in = getContent();
+            try {
+                final byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private InputStream decode(final InputStream in) throws IOException {
+            if (GZIP.equals(coding)) {
+                return new GZIPInputStream(in);
+            }
+            // servers disagree on whether deflate means zlib wrapped or raw
+            // deflate, so sniff the zlib header
+            final BufferedInputStream buffered = new BufferedInputStream(in, 2);
+            buffered.mark(2);
+            final int b0 = buffered.read();
+            final int b1 = buffered.read();
+            buffered.reset();
+            final boolean zlib = b0 != -1 && b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            final Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(buffered, inflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // not done by the stream when given its inflater
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import com.bertvanbrakel.android.lang.Logger;
+import com.bertvanbrakel.android.lang.ThrottledLogger;
+
+/**
+ * Disk tier of the {@link ResponseCache}. One file per entry, evicting the
+ * least recently used files once the total size goes over the limit. File
+ * modification times record use, so the LRU order survives restarts. Keys,
+ * which hold the request headers, are only stored hashed.
+ * <p>
+ * Read and write failures are logged and treated as a cache miss.
+ */
+class DiskResponseStore {
+
+    private static final Logger LOG = Logger.get(DiskResponseStore.class);
+    /** For failures which recur on every request while the disk is broken */
+    private static final ThrottledLogger THROTTLED_LOG = LOG.throttled(5, 1, TimeUnit.MINUTES);
+
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".cache";
+
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes;
+
+    DiskResponseStore(final File dir, final long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOG.warn("Could not create response cache dir " + dir.getAbsolutePath());
+        }
+        loadIndex();
+    }
+
+    private void loadIndex() {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File f1, final File f2) {
+                final long m1 = f1.lastModified();
+                final long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (final File f : files) {
+            if (f.getName().endsWith(SUFFIX)) {
+                sizes.put(f.getName(), f.length());
+                totalBytes += f.length();
+            }
+        }
+    }
+
+    synchronized ResponseCache.Entry read(final String key) {
+        final String name = fileName(key);
+        // get, not containsKey, so the read counts as a use
+        if (sizes.get(name) == null) {
+            return null;
+        }
+        final File f = new File(dir, name);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            if (in.readInt() != VERSION || !name.equals(in.readUTF())) {
+                return null;
+            }
+            final long storedAt = in.readLong();
+            final long expiresAt = in.readLong();
+            final int status = in.readInt();
+            final String reason = in.readUTF();
+            final String charset = in.readUTF();
+            final Header[] headers = new Header[in.readInt()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = new BasicHeader(in.readUTF(), in.readUTF());
+            }
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            f.setLastModified(System.currentTimeMillis());
+            return new ResponseCache.Entry(key, new RestResponse(status, reason, headers, body, charset, TransferStats.NONE), storedAt, expiresAt);
+        } catch (final IOException e) {
+            THROTTLED_LOG.warn("Error reading cached response, discarding {}", f.getAbsolutePath(), e);
+            IOUtils.closeQuietly(in);
+            in = null;
+            remove(key);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    synchronized void write(final ResponseCache.Entry e) {
+        final RestResponse r = e.getResponse();
+        final String name = fileName(e.getKey());
+        final File tmp = new File(dir, name + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            // not the key itself, which may hold credentials
+            out.writeUTF(name);
+            out.writeLong(e.getStoredAt());
+            out.writeLong(e.getExpiresAt());
+            out.writeInt(r.getStatusCode());
+            out.writeUTF(r.getReasonPhrase() == null ? "" : r.getReasonPhrase());
+            out.writeUTF(r.getCharset());
+            final Header[] headers = r.getHeaders();
+            out.writeInt(headers.length);
+            for (final Header h : headers) {
+                out.writeUTF(h.getName());
+                out.writeUTF(h.getValue() == null ? "" : h.getValue());
+            }
+            out.writeInt(r.getContentLength());
+            out.write(r.getBodyBytes());
+            out.close();
+            out = null;
+
+            final File f = new File(dir, name);
+            if (!tmp.renameTo(f)) {
+                // some platforms won't rename over an existing file
+                f.delete();
+                if (!tmp.renameTo(f)) {
+                    throw new IOException("Could not rename " + tmp.getAbsolutePath());
+                }
+            }
+            final Long old = sizes.put(name, f.length());
+            totalBytes += f.length() - (old == null ? 0 : old);
+            evict();
+        } catch (final IOException ex) {
+            THROTTLED_LOG.warn("Error writing cached response {}", tmp.getAbsolutePath(), ex);
+            tmp.delete();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    synchronized void remove(final String key) {
+        final String name = fileName(key);
+        final Long size = sizes.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+            new File(dir, name).delete();
+        }
+    }
+
+    synchronized void clear() {
+        for (final String name : sizes.keySet()) {
+            new File(dir, name).delete();
+        }
+        sizes.clear();
+        totalBytes = 0;
+    }
+
+    synchronized long getSize() {
+        return totalBytes;
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> it = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            final Map.Entry<String, Long> lru = it.next();
+            it.remove();
+            totalBytes -= lru.getValue();
+            new File(dir, lru.getKey()).delete();
+        }
+    }
+
+    private static String fileName(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (final byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        } catch (final IOException e) {
+            throw new IllegalStateException("UTF-8 not available", e);
+        }
+    }
+}
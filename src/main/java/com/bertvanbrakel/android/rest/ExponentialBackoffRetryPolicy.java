@@ -0,0 +1,94 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Random;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+/**
+ * Retries idempotent requests (GET and PUT) which failed with an I/O error or
+ * a {@link HttpStatus#isRetryable() retryable} status, waiting an exponentially
+ * growing, randomly jittered delay between attempts so that many clients don't
+ * all hit a recovering server at once.
+ * <p>
+ * A POST is only retried when it can't have reached the server, i.e. the
+ * connection could not be made. A Retry-After header is honoured, giving up
+ * if it asks for a longer wait than the maximum delay.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MS = 200;
+    public static final long DEFAULT_MAX_DELAY_MS = 10000;
+
+    private final Random random = new Random();
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public ExponentialBackoffRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param maxAttempts total number of times a request is sent, including the first
+     * @param baseDelayMs upper bound of the delay before the first retry, doubling each retry
+     * @param maxDelayMs the upper bound of any delay
+     */
+    public ExponentialBackoffRetryPolicy(final int maxAttempts, final long baseDelayMs, final long maxDelayMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Need at least one attempt, got " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    @Override
+    public long getRetryDelay(final RestRequest request, final int attempt, final int statusCode, final long retryAfterMillis, final RestClientException failure) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+        final boolean retry;
+        if (failure != null) {
+            retry = isNotSent(failure) || (isIdempotent(request) && isTransient(failure));
+        } else {
+            retry = isIdempotent(request) && HttpStatus.isRetryable(statusCode);
+        }
+        if (!retry) {
+            return -1;
+        }
+        if (retryAfterMillis >= 0) {
+            return retryAfterMillis <= maxDelayMs ? retryAfterMillis : -1;
+        }
+        return backoff(attempt);
+    }
+
+    /**
+     * "Full jitter", a random delay between zero and the exponential bound
+     */
+    long backoff(final int attempt) {
+        final long bound = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 30));
+        return (long) (random.nextDouble() * bound);
+    }
+
+    protected boolean isIdempotent(final RestRequest request) {
+        return request.getMethod() == RequestMethod.GET || request.getMethod() == RequestMethod.PUT;
+    }
+
+    private static boolean isNotSent(final RestClientException failure) {
+        final Throwable cause = failure.getCause();
+        // includes timing out waiting for a pooled connection
+        return cause instanceof ConnectException || cause instanceof ConnectTimeoutException;
+    }
+
+    private static boolean isTransient(final RestClientException failure) {
+        final Throwable cause = failure.getCause();
+        // protocol errors won't go away by asking again
+        return cause instanceof IOException && !(cause instanceof ClientProtocolException);
+    }
+}
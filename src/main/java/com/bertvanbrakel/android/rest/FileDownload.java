@@ -0,0 +1,477 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+import com.bertvanbrakel.android.lang.Logger;
+
+/**
+ * Downloads a GET response straight to a file using Range requests, so an
+ * interrupted download resumes where it stopped the next time it is executed,
+ * and a large download can be split into byte ranges fetched in parallel over
+ * pooled connections.
+ * <p>
+ * Progress is kept in a '.progress' file next to the target, removed once the
+ * download completes. A download only resumes if the server gave an ETag or
+ * Last-Modified validator, which is sent as If-Range so a changed resource is
+ * downloaded again from the start. Servers which ignore ranges get a plain
+ * single connection download.
+ * <p>
+ * Create via {@link RestClient#newDownload(RestRequest, File)}. Not thread
+ * safe, configure then execute from a single thread.
+ */
+public class FileDownload {
+
+    private static final Logger LOG = Logger.get(FileDownload.class);
+
+    public static final String PROGRESS_SUFFIX = ".progress";
+
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SAVE_EVERY = 4 * 1024 * 1024;
+
+    private final RestClient client;
+    private final RestRequest request;
+    private final File target;
+    private final File progressFile;
+    private int segments = 1;
+    private long minSegmentSize = 1024 * 1024;
+
+    FileDownload(final RestClient client, final RestRequest request, final File target) {
+        this.client = client;
+        this.request = request;
+        this.target = target;
+        this.progressFile = new File(target.getPath() + PROGRESS_SUFFIX);
+    }
+
+    /**
+     * Split the download into up to this many byte ranges fetched in
+     * parallel on the client's {@link RestExecutor}. Effectively capped by the
+     * pool's max connections per host. Defaults to 1
+     */
+    public FileDownload segments(final int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Need at least one segment, got " + segments);
+        }
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Don't split into ranges smaller than this. Defaults to 1MB
+     */
+    public FileDownload minSegmentSize(final long bytes) {
+        this.minSegmentSize = bytes;
+        return this;
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    /**
+     * Download, resuming a previous attempt if there is one
+     *
+     * @return the size of the downloaded file
+     */
+    public long execute() throws RestClientException {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(target, "rw");
+            final FileChannel channel = file.getChannel();
+            final Progress previous = Progress.load(progressFile);
+            if (previous != null && channel.size() >= previous.getWrittenEnd()) {
+                try {
+                    transfer(channel, previous, null);
+                    return complete(channel, previous);
+                } catch (final ChangedException e) {
+                    LOG.info("'{}' changed since the download started, downloading again", request.getUrl());
+                }
+            }
+            final Progress progress = start(channel);
+            return complete(channel, progress);
+        } catch (final IOException e) {
+            throw new RestClientException("Error writing download to " + target.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(file);
+        }
+    }
+
+    /**
+     * Request the whole resource as a range, reading the first segment from
+     * that response and the rest in parallel
+     */
+    private Progress start(final FileChannel channel) throws IOException, RestClientException {
+        final StreamingResponse first = client.executeStreaming(rangeRequest(0, -1, null));
+        boolean handedOff = false;
+        try {
+            final int status = first.getStatusCode();
+            long total;
+            boolean ranged = false;
+            if (HttpStatus.PARTIAL_CONTENT.equalsCode(status)) {
+                final long[] range = parseContentRange(first.getHeaderValue("Content-Range").asString());
+                if (range == null || range[0] != 0) {
+                    throw new RestClientException("Unexpected Content-Range " + first.getHeaderValue("Content-Range").asString());
+                }
+                total = range[2];
+                ranged = true;
+            } else if (HttpStatus.OK.equalsCode(status)) {
+                total = first.getContentLength();
+            } else {
+                throw new RestClientException(String.format("Unexpected http status %d downloading '%s'", status, request.getUrl()));
+            }
+            // only now that there's a body to replace it with
+            channel.truncate(0);
+            final String validator = ranged ? validator(first) : null;
+            final Progress progress = new Progress(progressFile, total, validator, split(total, ranged && validator != null));
+            if (validator != null) {
+                progress.save(channel);
+            }
+            handedOff = true;
+            transfer(channel, progress, first);
+            return progress;
+        } finally {
+            if (!handedOff) {
+                first.abort();
+            }
+        }
+    }
+
+    private List<Segment> split(final long total, final boolean ranged) {
+        final List<Segment> split = new ArrayList<Segment>();
+        final int n = (!ranged || total <= 0) ? 1 : (int) Math.max(1, Math.min(segments, total / Math.max(1, minSegmentSize)));
+        if (total < 0) {
+            split.add(new Segment(0, -1, 0));
+            return split;
+        }
+        final long size = total / n;
+        for (int i = 0; i < n; i++) {
+            final long start = i * size;
+            final long end = i == n - 1 ? total - 1 : start + size - 1;
+            split.add(new Segment(start, end, start));
+        }
+        return split;
+    }
+
+    /**
+     * Fetch every incomplete segment, the first from the given response if
+     * there is one and the rest in parallel
+     */
+    private void transfer(final FileChannel channel, final Progress progress, final StreamingResponse first) throws IOException, RestClientException {
+        final List<RestCall> calls = new ArrayList<RestCall>();
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = first == null ? 0 : 1; i < progress.segments.size(); i++) {
+            final Segment segment = progress.segments.get(i);
+            if (segment.isComplete()) {
+                continue;
+            }
+            final RestCall call = client.newCall(rangeRequest(segment.position, segment.end, progress.validator));
+            calls.add(call);
+            futures.add(client.getExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    read(channel, progress, segment, openRange(call));
+                    return null;
+                }
+            }));
+        }
+        RestClientException failure = null;
+        if (first != null) {
+            try {
+                read(channel, progress, progress.segments.get(0), first);
+            } catch (final RestClientException e) {
+                failure = e;
+            }
+        }
+        for (final Future<Void> future : futures) {
+            if (failure != null) {
+                for (final RestCall call : calls) {
+                    call.cancel();
+                }
+            }
+            try {
+                future.get();
+            } catch (final ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RestClientException ? (RestClientException) e.getCause() : new RestClientException("Error downloading " + request.getUrl(), e.getCause());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new RestCancelledException("Interrupted downloading " + request.getUrl(), e);
+                }
+            }
+        }
+        if (progress.validator != null) {
+            progress.save(channel);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @throws ChangedException if the server ignored the If-Range because the
+     *             resource changed
+     */
+    private StreamingResponse openRange(final RestCall call) throws RestClientException {
+        final StreamingResponse response = call.executeStreaming();
+        final int status = response.getStatusCode();
+        if (HttpStatus.PARTIAL_CONTENT.equalsCode(status)) {
+            return response;
+        }
+        response.abort();
+        if (HttpStatus.OK.equalsCode(status) || HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.equalsCode(status)) {
+            throw new ChangedException();
+        }
+        throw new RestClientException(String.format("Unexpected http status %d downloading '%s'", status, request.getUrl()));
+    }
+
+    /**
+     * Copy the segment's bytes from the response into the file at the
+     * segment's position
+     */
+    private static void read(final FileChannel channel, final Progress progress, final Segment segment, final StreamingResponse response) throws RestClientException {
+        final long from = segment.position;
+        try {
+            final InputStream in = response.getInputStream();
+            final byte[] buf = new byte[BUFFER_SIZE];
+            final ByteBuffer buffer = ByteBuffer.wrap(buf);
+            long unsaved = 0;
+            while (!segment.isComplete()) {
+                final int max = segment.end < 0 ? buf.length : (int) Math.min(buf.length, segment.end - segment.position + 1);
+                final int n = in.read(buf, 0, max);
+                if (n < 0) {
+                    if (segment.end >= 0) {
+                        throw new IOException(String.format("Connection closed at %d, expected up to %d", segment.position, segment.end));
+                    }
+                    // length wasn't known, so this is the end
+                    segment.end = segment.position - 1;
+                    break;
+                }
+                buffer.clear();
+                buffer.limit(n);
+                long position = segment.position;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                segment.position = position;
+                unsaved += n;
+                if (unsaved >= SAVE_EVERY && progress.validator != null) {
+                    progress.save(channel);
+                    unsaved = 0;
+                }
+            }
+        } catch (final IOException e) {
+            response.abort();
+            throw response.getCall().failure("Error downloading " + response.getCall().getRequest().getUrl(), e);
+        }
+        if (response.getContentLength() < 0 || response.getContentLength() == segment.position - from) {
+            response.close();
+        } else {
+            // the first response goes on past its segment, don't read the rest
+            response.abort();
+        }
+    }
+
+    private long complete(final FileChannel channel, final Progress progress) throws IOException {
+        long size = 0;
+        for (final Segment s : progress.segments) {
+            size = Math.max(size, s.end + 1);
+        }
+        channel.truncate(size);
+        channel.force(true);
+        if (progressFile.exists() && !progressFile.delete()) {
+            LOG.warn("Could not delete " + progressFile.getAbsolutePath());
+        }
+        return size;
+    }
+
+    private RestRequest rangeRequest(final long from, final long to, final String validator) {
+        final RestRequest.Builder builder = request.toBuilder()
+                .header("Range", "bytes=" + from + "-" + (to < 0 ? "" : Long.toString(to)))
+                // byte ranges of an encoded body can't be stitched together
+                .header(ContentCoding.ACCEPT_ENCODING, "identity");
+        if (validator != null) {
+            builder.header("If-Range", validator);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a strong ETag, else the Last-Modified date, else null
+     */
+    private static String validator(final StreamingResponse response) {
+        final String etag = response.getHeaderValue("ETag").asString();
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.getHeaderValue("Last-Modified").asString();
+    }
+
+    /**
+     * @return start, end and total (-1 if '*') of a 'bytes start-end/total'
+     *         Content-Range, or null if not in that form
+     */
+    static long[] parseContentRange(final String value) {
+        if (value == null || !value.startsWith("bytes ")) {
+            return null;
+        }
+        final int dash = value.indexOf('-');
+        final int slash = value.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            final String total = value.substring(slash + 1).trim();
+            return new long[] {
+                    Long.parseLong(value.substring(6, dash).trim()),
+                    Long.parseLong(value.substring(dash + 1, slash).trim()),
+                    "*".equals(total) ? -1 : Long.parseLong(total) };
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A byte range, end inclusive, and how far it has been written
+     */
+    private static class Segment {
+        final long start;
+        volatile long end;
+        volatile long position;
+
+        Segment(final long start, final long end, final long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        boolean isComplete() {
+            return end >= 0 && position > end;
+        }
+    }
+
+    /**
+     * The segments of a download, saved so it can be resumed
+     */
+    private static class Progress {
+        final File file;
+        final long total;
+        final String validator;
+        final List<Segment> segments;
+
+        Progress(final File file, final long total, final String validator, final List<Segment> segments) {
+            this.file = file;
+            this.total = total;
+            this.validator = validator;
+            this.segments = segments;
+        }
+
+        /**
+         * @return the file size needed to hold what was written
+         */
+        long getWrittenEnd() {
+            long end = 0;
+            for (final Segment s : segments) {
+                if (s.position > s.start) {
+                    end = Math.max(end, s.position);
+                }
+            }
+            return end;
+        }
+
+        /**
+         * Flush the downloaded bytes to disk, then record how far each segment got
+         */
+        synchronized void save(final FileChannel channel) throws IOException {
+            // taken before the force, as readers keep writing meanwhile
+            final long[] ends = new long[segments.size()];
+            final long[] positions = new long[segments.size()];
+            for (int i = 0; i < positions.length; i++) {
+                ends[i] = segments.get(i).end;
+                positions[i] = segments.get(i).position;
+            }
+            channel.force(false);
+            final File tmp = new File(file.getPath() + ".tmp");
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(VERSION);
+                out.writeLong(total);
+                out.writeUTF(validator);
+                out.writeInt(segments.size());
+                for (int i = 0; i < positions.length; i++) {
+                    out.writeLong(segments.get(i).start);
+                    out.writeLong(ends[i]);
+                    out.writeLong(positions[i]);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // some platforms won't rename over an existing file
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Could not rename " + tmp.getAbsolutePath());
+                }
+            }
+        }
+
+        /**
+         * @return the saved progress, or null if there is none or it can't be read
+         */
+        static Progress load(final File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != VERSION) {
+                    return null;
+                }
+                final long total = in.readLong();
+                final String validator = in.readUTF();
+                final int count = in.readInt();
+                final List<Segment> segments = new ArrayList<Segment>(count);
+                for (int i = 0; i < count; i++) {
+                    segments.add(new Segment(in.readLong(), in.readLong(), in.readLong()));
+                }
+                return new Progress(file, total, validator, segments);
+            } catch (final IOException e) {
+                LOG.warn("Could not read download progress, starting again " + file.getAbsolutePath(), e);
+                return null;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * The resource changed since the download started
+     */
+    private static class ChangedException extends RestClientException {
+        private static final long serialVersionUID = 1L;
+
+        ChangedException() {
+            super("Resource changed");
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package com.bertvanbrakel.android.rest;
 
+/**
+ * The standard http statuses. Look up a received code with
+ * {@link #forCode(int)}, which is a table lookup, and classify it with
+ * {@link StatusClass#of(int)} or the static queries, which work for codes
+ * without a constant too.
+ */
 public enum HttpStatus {
     CONTINUE(100),
     SWITCHING_PROTOCOLS(101),
@@ -12,6 +18,11 @@ public enum HttpStatus {
     PARTIAL_CONTENT(206),
     MULTIPLE_CHOICES(300),
     MOVED_PERMANENTLY(301),
+    /**
+     * @deprecated the HTTP/1.0 name for 302, use {@link #FOUND}, which is
+     *             what a 302 is looked up as
+     */
+    @Deprecated
     MOVED_TEMPORARILY(302),
     FOUND(302),
     SEE_OTHER(303),
@@ -36,12 +47,46 @@ public enum HttpStatus {
     UNSUPPORTED_MEDIA_TYPE(415),
     REQUESTED_RANGE_NOT_SATISFIABLE(416),
     EXPECTATION_FAILED(417),
+    TOO_MANY_REQUESTS(429),
     INTERNAL_SERVER_ERROR(500),
     NOT_IMPLEMENTED(501),
     BAD_GATEWAY(502),
     SERVICE_UNAVAILABLE(503),
     GATEWAY_TIMEOUT(504),
-    HTTP_VERSION_NOT_SUPPORTED(505);
+    HTTP_VERSION_NOT_SUPPORTED(505),
+    /** Any code without a constant of its own, or no response at all */
+    UNKNOWN(-1);
+
+    /**
+     * The class of a status, from its first digit
+     */
+    public static enum StatusClass {
+        INFORMATIONAL,
+        SUCCESS,
+        REDIRECTION,
+        CLIENT_ERROR,
+        SERVER_ERROR,
+        /** Outside 100-599, e.g. -1 for no response */
+        UNKNOWN;
+
+        private static final StatusClass[] BY_DIGIT = { UNKNOWN, INFORMATIONAL, SUCCESS, REDIRECTION, CLIENT_ERROR, SERVER_ERROR };
+
+        public static StatusClass of(final int code) {
+            return code >= 100 && code < 600 ? BY_DIGIT[code / 100] : UNKNOWN;
+        }
+    }
+
+    /** The constant for each code, null where there is none */
+    private static final HttpStatus[] BY_CODE = new HttpStatus[600];
+
+    static {
+        for (final HttpStatus s : values()) {
+            // the first constant for a code wins, bar the deprecated 302 alias
+            if (s != UNKNOWN && s != MOVED_TEMPORARILY && BY_CODE[s.code] == null) {
+                BY_CODE[s.code] = s;
+            }
+        }
+    }
 
     private final int code;
 
@@ -57,12 +102,108 @@ public enum HttpStatus {
         return this.code == code;
     }
 
-    public static HttpStatus find(final int code){
-        for( final HttpStatus s:values()){
-            if( s.code == code){
-                return s;
-            }
+    public StatusClass getStatusClass() {
+        return StatusClass.of(code);
+    }
+
+    /**
+     * @return true for a 2xx status
+     */
+    public boolean isSuccess() {
+        return isSuccess(code);
+    }
+
+    /**
+     * @return true for a 4xx status
+     */
+    public boolean isClientError() {
+        return isClientError(code);
+    }
+
+    /**
+     * @return true for a 5xx status
+     */
+    public boolean isServerError() {
+        return isServerError(code);
+    }
+
+    /**
+     * @return true if the same request may well succeed if sent again later:
+     * request timeout, too many requests, bad gateway, service unavailable and
+     * gateway timeout
+     */
+    public boolean isRetryable() {
+        return isRetryable(code);
+    }
+
+    /**
+     * @return true if a response with this status may be cached without
+     * explicit freshness information, per RFC 7231 section 6.1
+     */
+    public boolean isCacheable() {
+        return isCacheable(code);
+    }
+
+    public static boolean isSuccess(final int code) {
+        return StatusClass.of(code) == StatusClass.SUCCESS;
+    }
+
+    public static boolean isClientError(final int code) {
+        return StatusClass.of(code) == StatusClass.CLIENT_ERROR;
+    }
+
+    public static boolean isServerError(final int code) {
+        return StatusClass.of(code) == StatusClass.SERVER_ERROR;
+    }
+
+    public static boolean isRetryable(final int code) {
+        switch (code) {
+        case 408:
+        case 429:
+        case 502:
+        case 503:
+        case 504:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public static boolean isCacheable(final int code) {
+        switch (code) {
+        case 200:
+        case 203:
+        case 204:
+        case 206:
+        case 300:
+        case 301:
+        case 404:
+        case 405:
+        case 410:
+        case 414:
+        case 501:
+            return true;
+        default:
+            return false;
         }
-        return null;
+    }
+
+    /**
+     * @return the constant for the code, or {@link #UNKNOWN} if there is none.
+     *         A 302 is {@link #FOUND}
+     */
+    public static HttpStatus forCode(final int code) {
+        final HttpStatus s = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        return s == null ? UNKNOWN : s;
+    }
+
+    /**
+     * @return the constant for the code, or null if there is none
+     * @deprecated use {@link #forCode(int)}, which never returns null
+     */
+    @Deprecated
+    public static HttpStatus find(final int code) {
+        final HttpStatus s = forCode(code);
+        return s == UNKNOWN ? null : s;
     }
 }
@@ -1,30 +1,192 @@
 package com.bertvanbrakel.android.rest;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.http.NameValuePair;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
 
-
+/**
+ * A binary param, sent as a part of a multipart request. Backed by a byte
+ * array, a file or a stream. Files and streams are copied straight onto the
+ * connection, so uploads use the same small amount of memory whatever their
+ * size.
+ */
 public class InputStreamPair implements NameValuePair {
 
-	private final byte[] bytes;
 	private final String name;
+	private final byte[] bytes;
+	private final File file;
+	private final InputStream stream;
+	private final long length;
 
 	public InputStreamPair(final String name, final byte[] bytes) {
+		this(name, bytes, null, null, bytes.length);
+	}
+
+	/**
+	 * The file is read when the request is sent, and may be sent more than once
+	 */
+	public InputStreamPair(final String name, final File file) {
+		this(name, null, file, null, file.length());
+	}
+
+	/**
+	 * The stream is read, and closed, when the request is sent, so the request
+	 * can only be sent once and won't be retried
+	 *
+	 * @param length the number of bytes to send from the stream, or -1 if not
+	 *            known in which case the request is sent chunked
+	 */
+	public InputStreamPair(final String name, final InputStream stream, final long length) {
+		this(name, null, null, stream, length);
+	}
+
+	private InputStreamPair(final String name, final byte[] bytes, final File file, final InputStream stream, final long length) {
 		this.name = name;
 		this.bytes = bytes;
+		this.file = file;
+		this.stream = stream;
+		this.length = length;
 	}
 
 	public String getName() {
 		return name;
 	}
 
+	/**
+	 * A stream of the content. For a stream backed param this is the stream
+	 * itself, which can only be read once
+	 */
 	public InputStream getInputStream() {
-		return new ByteArrayInputStream(bytes);
+		if (bytes != null) {
+			return new ByteArrayInputStream(bytes);
+		}
+		if (file != null) {
+			try {
+				return new FileInputStream(file);
+			} catch (final FileNotFoundException e) {
+				throw new IllegalStateException("Could not open " + file.getAbsolutePath(), e);
+			}
+		}
+		return stream;
+	}
+
+	/**
+	 * @return the number of bytes, or -1 if not known
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return false if backed by a stream, which can only be sent once
+	 */
+	public boolean isRepeatable() {
+		return stream == null;
 	}
 
 	public String getValue() {
 		return null;
 	}
+
+	/**
+	 * The body of the multipart part for this param
+	 */
+	ContentBody toContentBody() {
+		if (file != null) {
+			return new FileChannelBody(file);
+		}
+		return new SizedInputStreamBody(bytes == null ? stream : new ByteArrayInputStream(bytes), name, length);
+	}
+
+	/**
+	 * Sends the file via {@link FileChannel#transferTo}, without a read loop
+	 * of ours. The target is a stream wrapped as a channel, so the platform
+	 * still copies the bytes through a buffer of its own
+	 */
+	private static class FileChannelBody extends FileBody {
+
+		FileChannelBody(final File file) {
+			super(file);
+		}
+
+		@Override
+		@Deprecated
+		public void writeTo(final OutputStream out, final int mode) throws IOException {
+			writeTo(out);
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+			final FileInputStream in = new FileInputStream(getFile());
+			try {
+				final FileChannel channel = in.getChannel();
+				final WritableByteChannel target = Channels.newChannel(out);
+				final long size = channel.size();
+				long position = 0;
+				while (position < size) {
+					position += channel.transferTo(position, size - position, target);
+				}
+				out.flush();
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * A stream body which declares its length, so the request need not be
+	 * chunked, and sends exactly that many bytes
+	 */
+	private static class SizedInputStreamBody extends InputStreamBody {
+		private final long length;
+
+		SizedInputStreamBody(final InputStream in, final String filename, final long length) {
+			super(in, filename);
+			this.length = length;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		@Deprecated
+		public void writeTo(final OutputStream out, final int mode) throws IOException {
+			writeTo(out);
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+			if (length < 0) {
+				super.writeTo(out);
+				return;
+			}
+			final InputStream in = getInputStream();
+			try {
+				final long copied = IOUtils.copyLarge(new BoundedInputStream(in, length), out);
+				if (copied < length) {
+					throw new EOFException(String.format("Stream ended after %d of the %d bytes declared", copied, length));
+				}
+				out.flush();
+			} finally {
+				in.close();
+			}
+		}
+	}
 }
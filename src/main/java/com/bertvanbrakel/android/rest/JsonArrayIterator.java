@@ -0,0 +1,99 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Iterates over the elements of a top level json array in the response body,
+ * deserializing one element at a time so arbitrarily large arrays can be
+ * processed in constant memory.
+ * <p>
+ * Must be closed to release the connection. Closing before the end of the
+ * array drops the connection rather than downloading the remainder.
+ * <p>
+ * As {@link Iterator} can not throw checked exceptions, read and parse errors
+ * are thrown as gson's {@link JsonParseException}.
+ *
+ * @param <T> the element type
+ */
+public class JsonArrayIterator<T> implements Iterator<T>, Closeable {
+
+    private final StreamingResponse response;
+    private final JsonReader reader;
+    private final Gson gson;
+    private final Type elementType;
+    private boolean finished;
+
+    JsonArrayIterator(final StreamingResponse response, final Gson gson, final Type elementType) throws RestClientException {
+        this.response = response;
+        this.gson = gson;
+        this.elementType = elementType;
+        try {
+            JsonResponseHandler.checkSuccess(response);
+            reader = new JsonReader(response.getReader());
+            reader.beginArray();
+        } catch (final IOException e) {
+            response.abort();
+            throw new RestClientException("Error reading json array from server", e);
+        } catch (final RestClientException e) {
+            response.abort();
+            throw e;
+        } catch (final RuntimeException e) {
+            response.abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (finished) {
+            return false;
+        }
+        try {
+            if (reader.hasNext()) {
+                return true;
+            }
+            reader.endArray();
+            finished = true;
+            response.close();
+            return false;
+        } catch (final IOException e) {
+            close();
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return gson.<T> fromJson(reader, elementType);
+        } catch (final JsonParseException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            response.abort();
+        }
+    }
+}
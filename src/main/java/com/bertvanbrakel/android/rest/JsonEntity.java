@@ -0,0 +1,84 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.protocol.HTTP;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Request entity which serializes an object with gson directly onto the
+ * connection's output stream using chunked transfer encoding, so the json is
+ * never built up in memory. Repeatable, as the object is serialized again on
+ * each write
+ */
+public class JsonEntity extends AbstractHttpEntity {
+
+    public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private final Gson gson;
+    private final Object source;
+    private final Type type;
+
+    public JsonEntity(final Gson gson, final Object source) {
+        this(gson, source, source == null ? Object.class : source.getClass());
+    }
+
+    /**
+     * @param type the full generic type of the source, e.g. from a gson TypeToken
+     */
+    public JsonEntity(final Gson gson, final Object source, final Type type) {
+        this.gson = gson;
+        this.source = source;
+        this.type = type;
+        setContentType(CONTENT_TYPE);
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, HTTP.UTF_8));
+        try {
+            gson.toJson(source, type, writer);
+        } catch (final JsonIOException e) {
+            throw new IOException("Error writing json request body", e);
+        }
+        // flush, but leave closing the connection stream to the caller
+        writer.flush();
+    }
+
+    /**
+     * Only for callers which insist on pulling the content, this buffers the
+     * whole body. The transport uses {@link #writeTo(OutputStream)}
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTo(bytes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
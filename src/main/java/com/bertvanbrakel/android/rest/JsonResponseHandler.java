@@ -0,0 +1,50 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Deserializes the response body straight from the entity stream, without
+ * first reading it into a String
+ *
+ * @param <T> the type to deserialize into
+ */
+public class JsonResponseHandler<T> implements RestResponseHandler<T> {
+
+    private final Gson gson;
+    private final Type type;
+
+    public JsonResponseHandler(final Gson gson, final Class<T> type) {
+        this(gson, (Type) type);
+    }
+
+    /**
+     * @param type the full generic type, e.g. from a gson TypeToken
+     */
+    public JsonResponseHandler(final Gson gson, final Type type) {
+        this.gson = gson;
+        this.type = type;
+    }
+
+    @Override
+    public T handle(final StreamingResponse response) throws IOException, RestClientException {
+        checkSuccess(response);
+        final JsonReader reader = new JsonReader(response.getReader());
+        try {
+            return gson.<T> fromJson(reader, type);
+        } catch (final JsonParseException e) {
+            throw new RestClientException(String.format("Error parsing json response into %s", type), e);
+        }
+    }
+
+    static void checkSuccess(final StreamingResponse response) throws RestClientException {
+        final int code = response.getStatusCode();
+        if (code < 200 || code >= 300) {
+            throw new RestClientException(String.format("Expected a successful json response but got http status %d %s", code, response.getReasonPhrase()));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.bertvanbrakel.android.rest;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.bertvanbrakel.android.lang.Logger;
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+/**
+ * Collects individual lookups made within a short window into a single batch
+ * call, then hands each caller its own result. Turns many small requests for
+ * single items into one request for all of them.
+ * <p>
+ * A batch is sent once it holds the max batch size of keys, or the window has
+ * passed since its first key was added, whichever comes first. The same key
+ * asked for twice in one batch is only sent once. Thread safe.
+ *
+ * @param <K> the key of an item, e.g. its id
+ * @param <V> the item
+ */
+public class RequestBatcher<K, V> {
+
+    private static final Logger LOG = Logger.get(RequestBatcher.class);
+
+    /**
+     * Fetches the items for a batch of keys in one go
+     */
+    public interface BatchCall<K, V> {
+        /**
+         * @return the items by key. Keys missing from the result fail with a
+         *         {@link RestClientException}
+         */
+        Map<K, V> execute(List<K> keys) throws RestClientException;
+    }
+
+    private final BatchCall<K, V> batchCall;
+    private final int maxBatchSize;
+    private final long windowMs;
+    private final RestExecutor executor;
+    private final ScheduledExecutorService timer;
+
+    // guarded by this
+    private Map<K, Pending<V>> pending = new LinkedHashMap<K, Pending<V>>();
+    private boolean shutdown;
+
+    /**
+     * @param executor runs the batch calls
+     */
+    public RequestBatcher(final BatchCall<K, V> batchCall, final int maxBatchSize, final long windowMs, final RestExecutor executor) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1, got " + maxBatchSize);
+        }
+        this.batchCall = batchCall;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMs = windowMs;
+        this.executor = executor;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "RequestBatcher-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * A batch call which POSTs the keys as a json array to the given url and
+     * reads back a json object of the items by key
+     *
+     * @param resultType the full type of the response object, e.g.
+     *            <code>new TypeToken&lt;Map&lt;String, Item&gt;&gt;(){}.getType()</code>
+     */
+    public static <V> BatchCall<String, V> newJsonBatchCall(final RestClient client, final String batchUrl, final Type resultType) {
+        return new BatchCall<String, V>() {
+            @Override
+            public Map<String, V> execute(final List<String> keys) throws RestClientException {
+                final RestRequest request = RestRequest.newBuilder(RequestMethod.POST, batchUrl).jsonBody(keys).build();
+                return client.executeJson(request, resultType);
+            }
+        };
+    }
+
+    /**
+     * @return the future item for the key, failing if the batch call fails or
+     *         the batcher is shut down
+     */
+    public Future<V> submit(final K key) {
+        final Map<K, Pending<V>> full;
+        final Pending<V> result;
+        synchronized (this) {
+            if (shutdown) {
+                final Pending<V> rejected = new Pending<V>();
+                rejected.fail(new RestClientException("Batcher is shut down, not requesting " + key));
+                return rejected;
+            }
+            Pending<V> p = pending.get(key);
+            if (p == null) {
+                p = new Pending<V>();
+                pending.put(key, p);
+                if (pending.size() == 1 && maxBatchSize > 1) {
+                    final Map<K, Pending<V>> batch = pending;
+                    timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(batch);
+                        }
+                    }, windowMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            result = p;
+            full = pending.size() >= maxBatchSize ? pending : null;
+        }
+        if (full != null) {
+            flush(full);
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the item for the key
+     */
+    public V get(final K key) throws RestClientException {
+        try {
+            return submit(key).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestCancelledException("Interrupted waiting for batched request", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RestClientException) {
+                throw (RestClientException) e.getCause();
+            }
+            throw new RestClientException("Error executing batch", e.getCause());
+        }
+    }
+
+    /**
+     * Send the batch, if it is still the one being collected
+     */
+    private void flush(final Map<K, Pending<V>> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                // already sent
+                return;
+            }
+            pending = new LinkedHashMap<K, Pending<V>>();
+        }
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                send(batch);
+                return null;
+            }
+        });
+    }
+
+    private void send(final Map<K, Pending<V>> batch) {
+        final Map<K, V> results;
+        try {
+            results = batchCall.execute(new ArrayList<K>(batch.keySet()));
+        } catch (final Exception e) {
+            LOG.debug("Batch call failed", e);
+            for (final Pending<V> p : batch.values()) {
+                p.fail(e);
+            }
+            return;
+        }
+        for (final Map.Entry<K, Pending<V>> e : batch.entrySet()) {
+            if (results != null && results.containsKey(e.getKey())) {
+                e.getValue().succeed(results.get(e.getKey()));
+            } else {
+                e.getValue().fail(new RestClientException("No result for " + e.getKey() + " in batch response"));
+            }
+        }
+    }
+
+    /**
+     * Stop the window timer. Batches already sent still complete
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        timer.shutdown();
+    }
+
+    private static class Pending<V> extends FutureTask<V> {
+        Pending() {
+            super(new Callable<V>() {
+                @Override
+                public V call() {
+                    throw new IllegalStateException("Completed by the batch");
+                }
+            });
+        }
+
+        void succeed(final V value) {
+            set(value);
+        }
+
+        void fail(final Throwable t) {
+            setException(t);
+        }
+    }
+}
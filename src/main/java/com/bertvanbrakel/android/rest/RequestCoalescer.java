@@ -0,0 +1,164 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.NameValuePair;
+
+/**
+ * Single flight execution. While a call for a key is in flight, further calls
+ * for the same key wait for and share its result instead of making their own
+ * request. Results are not kept once the call completes, that is what the
+ * {@link ResponseCache} is for.
+ * <p>
+ * Shared results must be treated as read only. Thread safe, and can be shared
+ * by many clients.
+ */
+public class RequestCoalescer {
+
+    private final ConcurrentMap<String, Flight<?>> inFlight = new ConcurrentHashMap<String, Flight<?>>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Run the loader, unless a call with the same key is already in flight in
+     * which case wait for its result. The wait ends early if the given call,
+     * which must be started, is cancelled or its deadline passes. If the call
+     * waited on is itself cancelled or runs out of time, the loader is run
+     * after all
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(final String key, final RestCall call, final Callable<T> loader) throws RestClientException {
+        for (;;) {
+            final Flight<T> flight = new Flight<T>(loader);
+            final Flight<T> existing = (Flight<T>) inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                executed.incrementAndGet();
+                try {
+                    flight.run();
+                } finally {
+                    inFlight.remove(key, flight);
+                }
+                return get(flight);
+            }
+            coalesced.incrementAndGet();
+            await(existing, call);
+            try {
+                return get(existing);
+            } catch (final RestClientException e) {
+                if (!(e instanceof RestCancelledException || e instanceof RestDeadlineException)) {
+                    throw e;
+                }
+                // the other call's own cancel or deadline, not this one's
+            }
+        }
+    }
+
+    /**
+     * Wait for the flight to complete, or the call to stop
+     */
+    private static void await(final Flight<?> flight, final RestCall call) throws RestClientException {
+        final CountDownLatch wake = new CountDownLatch(1);
+        call.setStopHook(wake);
+        try {
+            flight.addWaiter(wake);
+            wake.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestCancelledException("Interrupted waiting for a coalesced request", e);
+        } finally {
+            call.setStopHook(null);
+        }
+        if (call.isStopped()) {
+            throw call.failure("Stopped waiting for a coalesced request", null);
+        }
+    }
+
+    private static <T> T get(final FutureTask<T> task) throws RestClientException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestCancelledException("Interrupted waiting for a coalesced request", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RestClientException) {
+                throw (RestClientException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RestClientException("Error executing request", cause);
+        }
+    }
+
+    /**
+     * A call in flight, which wakes those waiting on it when done
+     */
+    private static class Flight<T> extends FutureTask<T> {
+        // guarded by this
+        private final List<CountDownLatch> waiters = new ArrayList<CountDownLatch>();
+
+        Flight(final Callable<T> loader) {
+            super(loader);
+        }
+
+        synchronized void addWaiter(final CountDownLatch waiter) {
+            if (isDone()) {
+                waiter.countDown();
+            } else {
+                waiters.add(waiter);
+            }
+        }
+
+        @Override
+        protected synchronized void done() {
+            for (final CountDownLatch waiter : waiters) {
+                waiter.countDown();
+            }
+        }
+    }
+
+    /**
+     * The key of a request, its encoded uri and headers
+     */
+    static String key(final String uri, final List<NameValuePair> headers) {
+        final StringBuilder sb = new StringBuilder(uri.length() + headers.size() * 32);
+        sb.append(uri);
+        for (final NameValuePair h : headers) {
+            sb.append('\n').append(h.getName()).append(": ").append(h.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return number of calls which went to the network
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * @return number of calls which shared an in flight call's result
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of calls currently in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,234 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.bertvanbrakel.android.lang.Logger;
+import com.bertvanbrakel.android.lang.ThrottledLogger;
+
+/**
+ * Where the time went in a single attempt at a request, handed to the
+ * {@link RestListener} once the response has been read (or closed, for a
+ * streaming response) or the attempt failed. Retries are separate attempts.
+ * <p>
+ * Durations are in nanoseconds, -1 for a phase which didn't happen, e.g. no
+ * dns lookup or connect when a pooled connection was reused.
+ */
+public final class RequestTimings {
+
+    /** A broken listener fails on every request */
+    private static final ThrottledLogger LOG = Logger.get(RequestTimings.class).throttled(5, 1, TimeUnit.MINUTES);
+
+    /**
+     * The timings of the request being sent on this thread, for the
+     * connection pool and socket factory to record their part in
+     */
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<RequestTimings>();
+
+    public static enum Outcome {
+        /** Any response other than an error status */
+        SUCCESS,
+        /** A 4xx or 5xx response */
+        HTTP_ERROR,
+        /** No response within a timeout or the deadline */
+        TIMEOUT,
+        CANCELLED,
+        /** Any other failure, e.g. connection refused */
+        FAILED
+    }
+
+    private final RestRequest request;
+    private final String host;
+    private final RestListener listener;
+    private final long startNanos;
+
+    private volatile long poolAcquireNanos = -1;
+    private volatile long dnsNanos = -1;
+    private volatile long connectNanos = -1;
+    private volatile long firstByteNanos = -1;
+    private volatile long bodyReadNanos = -1;
+    private volatile long totalNanos = -1;
+    private volatile int statusCode = -1;
+    private volatile Outcome outcome;
+    private volatile RestClientException failure;
+    private volatile TransferStats transferStats = TransferStats.NONE;
+    private boolean ended;
+
+    private RequestTimings(final RestRequest request, final String host, final RestListener listener) {
+        this.request = request;
+        this.host = host;
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start timing an attempt, bound to this thread until the response headers
+     * arrive
+     */
+    static RequestTimings start(final RestRequest request, final HttpUriRequest httpRequest, final RestListener listener) {
+        final RequestTimings timings = new RequestTimings(request, httpRequest.getURI().getAuthority(), listener);
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    /**
+     * @return the timings of the request being sent on this thread, or null if
+     *         not timing
+     */
+    static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    void poolAcquired(final long nanos) {
+        poolAcquireNanos = nanos;
+    }
+
+    void dnsResolved(final long nanos) {
+        dnsNanos = nanos;
+    }
+
+    void connected(final long nanos) {
+        connectNanos = nanos;
+    }
+
+    void headersReceived(final int statusCode) {
+        CURRENT.remove();
+        this.firstByteNanos = System.nanoTime() - startNanos;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Record the end of the attempt and tell the listener. Only the first call
+     * counts
+     *
+     * @param failure the failure, or null if a response was read
+     */
+    void end(final TransferStats stats, final RestClientException failure) {
+        synchronized (this) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+        }
+        CURRENT.remove();
+        final long now = System.nanoTime();
+        totalNanos = now - startNanos;
+        if (firstByteNanos >= 0) {
+            bodyReadNanos = totalNanos - firstByteNanos;
+        }
+        transferStats = stats == null ? TransferStats.NONE : stats;
+        this.failure = failure;
+        outcome = toOutcome(failure, statusCode);
+        try {
+            listener.onRequestEnd(this);
+        } catch (final RuntimeException e) {
+            LOG.warn("Error in rest listener {}", listener, e);
+        }
+    }
+
+    private static Outcome toOutcome(final RestClientException failure, final int statusCode) {
+        if (failure instanceof RestTimeoutException) {
+            return Outcome.TIMEOUT;
+        }
+        if (failure instanceof RestCancelledException) {
+            return Outcome.CANCELLED;
+        }
+        if (failure != null) {
+            return Outcome.FAILED;
+        }
+        return statusCode >= 400 ? Outcome.HTTP_ERROR : Outcome.SUCCESS;
+    }
+
+    public RestRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the host and port the request was sent to
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the response status, or -1 if none was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the response status, {@link HttpStatus#UNKNOWN} if none was
+     *         received or it has no constant
+     */
+    public HttpStatus getStatus() {
+        return HttpStatus.forCode(statusCode);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return why the attempt failed, or null if a response was read
+     */
+    public RestClientException getFailure() {
+        return failure;
+    }
+
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * Time waiting for a connection from the pool, whether reused or new
+     */
+    public long getPoolAcquireNanos() {
+        return poolAcquireNanos;
+    }
+
+    /**
+     * Time resolving the host name for a new connection
+     */
+    public long getDnsNanos() {
+        return dnsNanos;
+    }
+
+    /**
+     * Time opening a new connection, including any TLS handshake. Includes
+     * the dns lookup if that couldn't be timed separately
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Time from the start until the response headers arrived, so including
+     * acquiring the connection and sending the request
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    /**
+     * Time from the response headers until the body was read or closed
+     */
+    public long getBodyReadNanos() {
+        return bodyReadNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: %s status %d in %dus [pool:%d, dns:%d, connect:%d, firstByte:%d, body:%d]", request.getMethod(), host, outcome, statusCode,
+                micros(totalNanos), micros(poolAcquireNanos), micros(dnsNanos), micros(connectNanos), micros(firstByteNanos), micros(bodyReadNanos));
+    }
+
+    private static long micros(final long nanos) {
+        return nanos < 0 ? -1 : nanos / 1000;
+    }
+}
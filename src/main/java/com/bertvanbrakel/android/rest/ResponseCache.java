@@ -0,0 +1,378 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.bertvanbrakel.android.lang.Logger;
+
+/**
+ * Cache for GET responses, with a size bounded LRU memory tier and an
+ * optional disk tier. Honours the Cache-Control max-age/no-store/no-cache
+ * directives and Expires, and revalidates stale entries using
+ * If-None-Match/If-Modified-Since so a 304 is served from the cache.
+ * <p>
+ * Thread safe. Install via {@link RestClient#setResponseCache(ResponseCache)}
+ */
+public class ResponseCache {
+
+    private static final Logger LOG = Logger.get(ResponseCache.class);
+
+    /**
+     * rough per entry bookkeeping cost, in bytes, on top of the body
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final long maxMemoryBytes;
+    private final DiskResponseStore disk;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+    /**
+     * Memory only cache
+     */
+    public ResponseCache(final long maxMemoryBytes) {
+        this(maxMemoryBytes, null, 0);
+    }
+
+    /**
+     * @param diskDir directory for the disk tier, created if need be. Entries
+     *            evicted from memory are still served from here
+     * @param maxDiskBytes max total size of the files in the disk tier
+     */
+    public ResponseCache(final long maxMemoryBytes, final File diskDir, final long maxDiskBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.disk = diskDir == null ? null : new DiskResponseStore(diskDir, maxDiskBytes);
+    }
+
+    /**
+     * @return the cached entry for the key, fresh or stale, or null if there is
+     *         nothing usable cached
+     */
+    Entry get(final String key) {
+        Entry e;
+        synchronized (this) {
+            e = memory.get(key);
+        }
+        if (e == null && disk != null) {
+            e = disk.read(key);
+            if (e != null) {
+                putInMemory(e);
+            }
+        }
+        if (e != null && !e.isFresh() && !e.hasValidators()) {
+            remove(key);
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * Add the conditional headers needed to revalidate the stale entry
+     */
+    void addValidators(final Entry e, final HttpUriRequest request) {
+        if (e.getETag() != null) {
+            request.setHeader("If-None-Match", e.getETag());
+        }
+        if (e.getLastModified() != null) {
+            request.setHeader("If-Modified-Since", e.getLastModified());
+        }
+    }
+
+    /**
+     * Cache the response if its status and headers allow. Partial content
+     * isn't, as ranges aren't asked for or merged
+     */
+    void put(final String key, final RestResponse response) {
+        final int status = response.getStatusCode();
+        if (!HttpStatus.isCacheable(status) || HttpStatus.PARTIAL_CONTENT.equalsCode(status)) {
+            return;
+        }
+        final Entry e = newEntry(key, response.withTransferStats(TransferStats.NONE));
+        if (e == null) {
+            remove(key);
+        } else {
+            store(e);
+        }
+    }
+
+    /**
+     * The server answered a revalidation with a 304, so update the stale entry
+     * with the new headers and freshness
+     */
+    Entry putRevalidated(final Entry stale, final RestResponse notModifiedResponse) {
+        notModified.incrementAndGet();
+        final RestResponse merged = stale.getResponse().withUpdatedHeaders(notModifiedResponse.getHeaders()).withTransferStats(TransferStats.NONE);
+        final Entry e = newEntry(stale.getKey(), merged);
+        if (e == null) {
+            // server now says don't store, but this response is still valid
+            remove(stale.getKey());
+            return new Entry(stale.getKey(), merged, System.currentTimeMillis(), 0);
+        }
+        store(e);
+        return e;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    public void remove(final String key) {
+        synchronized (this) {
+            final Entry e = memory.remove(key);
+            if (e != null) {
+                memoryBytes -= e.getSize();
+            }
+        }
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    public Stats getStats() {
+        final int entries;
+        final long bytes;
+        synchronized (this) {
+            entries = memory.size();
+            bytes = memoryBytes;
+        }
+        return new Stats(hits.get(), misses.get(), revalidations.get(), notModified.get(), entries, bytes, disk == null ? 0 : disk.getSize());
+    }
+
+    private void store(final Entry e) {
+        putInMemory(e);
+        if (disk != null) {
+            disk.write(e);
+        }
+    }
+
+    private synchronized void putInMemory(final Entry e) {
+        if (e.getSize() > maxMemoryBytes) {
+            return;
+        }
+        final Entry old = memory.put(e.getKey(), e);
+        if (old != null) {
+            memoryBytes -= old.getSize();
+        }
+        memoryBytes += e.getSize();
+        // access ordered, so the first entries are the least recently used
+        final Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            final Entry evicted = it.next().getValue();
+            it.remove();
+            memoryBytes -= evicted.getSize();
+        }
+    }
+
+    /**
+     * @return the entry, or null if the response must not be cached
+     */
+    private static Entry newEntry(final String key, final RestResponse response) {
+        final long now = System.currentTimeMillis();
+        boolean noCache = false;
+        long maxAgeSecs = -1;
+        for (final Header h : response.getHeaders()) {
+            if ("Cache-Control".equalsIgnoreCase(h.getName())) {
+                for (final HeaderElement el : h.getElements()) {
+                    final String name = el.getName().toLowerCase();
+                    if ("no-store".equals(name)) {
+                        return null;
+                    } else if ("no-cache".equals(name)) {
+                        noCache = true;
+                    } else if ("max-age".equals(name) && el.getValue() != null) {
+                        try {
+                            maxAgeSecs = Long.parseLong(el.getValue());
+                        } catch (final NumberFormatException ignore) {
+                            // treat as stale
+                            maxAgeSecs = 0;
+                        }
+                    }
+                }
+            } else if ("Vary".equalsIgnoreCase(h.getName()) && !"Accept-Encoding".equalsIgnoreCase(h.getValue().trim())) {
+                // the key has only the headers set on the request, not those
+                // the transport adds
+                return null;
+            }
+        }
+        long expiresAt = 0;
+        if (noCache) {
+            // always revalidate
+            expiresAt = 0;
+        } else if (maxAgeSecs >= 0) {
+            expiresAt = now + maxAgeSecs * 1000;
+        } else {
+            final String expires = response.getHeaderValue("Expires").getValue();
+            if (expires != null) {
+                try {
+                    expiresAt = DateUtils.parseDate(expires).getTime();
+                } catch (final DateParseException e) {
+                    // invalid dates mean already expired
+                    expiresAt = 0;
+                }
+            }
+        }
+        final Entry e = new Entry(key, response, now, expiresAt);
+        if (!e.isFresh() && !e.hasValidators()) {
+            // could never be used
+            return null;
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Caching '{}' until {}", key, new Date(expiresAt));
+        }
+        return e;
+    }
+
+    static class Entry {
+        private final String key;
+        private final RestResponse response;
+        private final long storedAt;
+        private final long expiresAt;
+        private final String etag;
+        private final String lastModified;
+
+        Entry(final String key, final RestResponse response, final long storedAt, final long expiresAt) {
+            this.key = key;
+            this.response = response;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+            this.etag = response.getHeaderValue("ETag").getValue();
+            this.lastModified = response.getHeaderValue("Last-Modified").getValue();
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        RestResponse getResponse() {
+            return response;
+        }
+
+        long getStoredAt() {
+            return storedAt;
+        }
+
+        long getExpiresAt() {
+            return expiresAt;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        long getSize() {
+            return response.getContentLength() + key.length() * 2 + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Point in time snapshot of the cache counters
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long revalidations;
+        private final long notModified;
+        private final int memoryEntries;
+        private final long memoryBytes;
+        private final long diskBytes;
+
+        Stats(final long hits, final long misses, final long revalidations, final long notModified, final int memoryEntries, final long memoryBytes, final long diskBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.revalidations = revalidations;
+            this.notModified = notModified;
+            this.memoryEntries = memoryEntries;
+            this.memoryBytes = memoryBytes;
+            this.diskBytes = diskBytes;
+        }
+
+        /**
+         * Requests served from the cache without contacting the server
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Requests with nothing usable in the cache
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Conditional requests sent to revalidate a stale entry
+         */
+        public long getRevalidations() {
+            return revalidations;
+        }
+
+        /**
+         * Revalidations answered with a 304, so the body came from the cache
+         */
+        public long getNotModified() {
+            return notModified;
+        }
+
+        public int getMemoryEntries() {
+            return memoryEntries;
+        }
+
+        public long getMemoryBytes() {
+            return memoryBytes;
+        }
+
+        public long getDiskBytes() {
+            return diskBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[hits:%d, misses:%d, revalidations:%d, notModified:%d, memoryEntries:%d, memoryBytes:%d, diskBytes:%d]", hits, misses, revalidations, notModified, memoryEntries, memoryBytes, diskBytes);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.bertvanbrakel.android.rest;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+/**
+ * A single execution of a {@link RestRequest}, which can be cancelled from
+ * another thread. Create via {@link RestClient#newCall(RestRequest)}.
+ * <p>
+ * Cancelling aborts the connection, so a call blocked connecting or reading
+ * fails straight away with a {@link RestCancelledException}. The same happens
+ * with a {@link RestDeadlineException} once the deadline of the call's
+ * {@link RestTimeouts} passes.
+ */
+public class RestCall {
+
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "RestCall-deadline");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final RestClient client;
+    private final RestRequest request;
+    private final RestTimeouts timeouts;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile boolean cancelled;
+    private volatile boolean expired;
+    private volatile HttpUriRequest current;
+    private volatile CountDownLatch stopHook;
+    private ScheduledFuture<?> deadline;
+    private boolean executed;
+
+    RestCall(final RestClient client, final RestRequest request, final RestTimeouts timeouts) {
+        this.client = client;
+        this.request = request;
+        this.timeouts = timeouts;
+    }
+
+    public RestRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the timeouts in effect, the request's merged with the client's
+     */
+    public RestTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * As {@link RestClient#execute(RestRequest)}. A call can only be executed once
+     */
+    public RestResponse execute() throws RestClientException {
+        return client.execute(this);
+    }
+
+    /**
+     * As {@link RestClient#executeStreaming(RestRequest)}. The deadline, if
+     * any, also covers reading the body. A call can only be executed once
+     */
+    public StreamingResponse executeStreaming() throws RestClientException {
+        return client.executeStreaming(this);
+    }
+
+    /**
+     * Abort the call. Safe to call from any thread, at any time
+     */
+    public void cancel() {
+        cancelled = true;
+        stop();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void stop() {
+        stopped.countDown();
+        final CountDownLatch hook = stopHook;
+        if (hook != null) {
+            hook.countDown();
+        }
+        final HttpUriRequest r = current;
+        if (r != null) {
+            r.abort();
+        }
+    }
+
+    /**
+     * Mark the call as started, starting the deadline timer
+     */
+    synchronized void start() {
+        if (executed) {
+            throw new IllegalStateException("Already executed " + request);
+        }
+        executed = true;
+        final long deadlineMs = timeouts.getDeadlineMillis();
+        if (deadlineMs > 0) {
+            deadline = DEADLINES.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expired = true;
+                    stop();
+                }
+            }, deadlineMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the deadline timer once the response has been fully read or abandoned
+     */
+    synchronized void finish() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        current = null;
+    }
+
+    /**
+     * Make the given request the one aborted on cancel, applying the timeouts
+     * to it
+     */
+    void attach(final HttpUriRequest httpRequest) throws RestClientException {
+        checkStopped(null);
+        timeouts.applyTo(httpRequest.getParams());
+        current = httpRequest;
+        if (stopped.getCount() == 0) {
+            // cancelled in between
+            httpRequest.abort();
+            checkStopped(null);
+        }
+    }
+
+    /**
+     * Have the latch released when the call is cancelled or its deadline
+     * passes, to wake a thread waiting on something else. Null to clear
+     */
+    void setStopHook(final CountDownLatch hook) {
+        stopHook = hook;
+        if (hook != null && isStopped()) {
+            hook.countDown();
+        }
+    }
+
+    /**
+     * Wait before a retry, returning early if cancelled or the deadline passes
+     */
+    void pause(final long delayMs) throws RestClientException {
+        try {
+            stopped.await(delayMs, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestCancelledException("Interrupted waiting to retry " + request, e);
+        }
+        checkStopped(null);
+    }
+
+    /**
+     * @return true if the call was cancelled or its deadline passed, so should
+     *         not be retried
+     */
+    boolean isStopped() {
+        return stopped.getCount() == 0;
+    }
+
+    private void checkStopped(final Exception cause) throws RestClientException {
+        if (cancelled) {
+            throw new RestCancelledException("Cancelled " + request, cause);
+        }
+        if (expired) {
+            throw new RestDeadlineException("Deadline of " + timeouts.getDeadlineMillis() + "ms passed for " + request, cause);
+        }
+    }
+
+    /**
+     * Wrap the failure in the most specific exception
+     */
+    RestClientException failure(final String message, final Exception e) {
+        try {
+            checkStopped(e);
+        } catch (final RestClientException stoppedFailure) {
+            return stoppedFailure;
+        }
+        if (e instanceof RestClientException) {
+            return (RestClientException) e;
+        }
+        // a pool timeout is a kind of connect timeout, so check it first
+        if (e instanceof ConnectionPoolTimeoutException) {
+            return new RestPoolTimeoutException(message + ", no pooled connection free within " + timeouts.getPoolTimeoutMillis() + "ms", e);
+        }
+        if (e instanceof ConnectTimeoutException) {
+            return new RestConnectTimeoutException(message + ", could not connect within " + timeouts.getConnectTimeoutMillis() + "ms", e);
+        }
+        if (e instanceof SocketTimeoutException) {
+            return new RestReadTimeoutException(message + ", nothing read for " + timeouts.getReadTimeoutMillis() + "ms", e);
+        }
+        return new RestClientException(message, e);
+    }
+}
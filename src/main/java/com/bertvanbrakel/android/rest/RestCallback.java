@@ -0,0 +1,14 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Notified when an asynchronous request completes. Invoked on the executor
+ * thread which ran the request
+ *
+ * @param <T> the result type
+ */
+public interface RestCallback<T> {
+
+    public void onSuccess(final T result);
+
+    public void onFailure(final RestClientException e);
+}
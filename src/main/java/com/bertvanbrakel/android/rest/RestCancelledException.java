@@ -0,0 +1,17 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown when a request was cancelled via {@link RestCall#cancel()}
+ */
+public class RestCancelledException extends RestClientException {
+
+    private static final long serialVersionUID = 5523075823716081294L;
+
+    public RestCancelledException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public RestCancelledException(final String message) {
+        super(message);
+    }
+}
@@ -1,58 +1,90 @@
 package com.bertvanbrakel.android.rest;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.InputStreamBody;
-import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 
 import com.bertvanbrakel.android.lang.Logger;
+import com.bertvanbrakel.android.rest.ContentCoding.TransferCounter;
+import com.google.gson.Gson;
 
 
 /**
  * Modified from the original at
  * http://lukencode.com/2010/04/27/calling-web-services
  * -in-android-using-httpclient/
+ * <p>
+ * The methods taking a {@link RestRequest} are thread safe, so a single client
+ * can be shared by all threads. The addParam/execute(RequestMethod) style
+ * keeps the params and last response in this object and is not.
  */
 public class RestClient {
 
-    private static final Logger LOG = new Logger(RestClient.class);
+    private static final Logger LOG = Logger.get(RestClient.class);
 
 	public static enum RequestMethod {
-		POST, GET;
+		POST, GET, PUT;
 	}
 
+	/**
+	 * Gson instances are thread safe and cache their type adapters, so share one
+	 */
+	private static final Gson DEFAULT_GSON = new Gson();
+
+	private static final String RETRY_AFTER = "Retry-After";
+
 	private final List<NameValuePair> params = new ArrayList<NameValuePair>();
 
 	private final List<NameValuePair> headers = new ArrayList<NameValuePair>();
 	private final String baseUrl;
 
+	private final RestExecutor executor;
+	private volatile RestTransport transport;
+	private volatile Gson gson = DEFAULT_GSON;
+	private volatile ResponseCache responseCache;
+	private volatile boolean acceptCompressed = true;
+	private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+	private volatile CircuitBreaker circuitBreaker;
+	private volatile RestTimeouts timeouts = RestTimeouts.DEFAULT;
+	private volatile RequestCoalescer requestCoalescer;
+	private volatile RestListener listener;
+	private volatile RestDispatcher dispatcher;
+
 	private int responseCode;
 	private String message;
+	private RestResponse lastResponse;
 	private String response;
 
 	private HttpResponse httpResponse;
 
+	/**
+	 * The body of the last response executed via {@link #execute(RequestMethod)},
+	 * decoded on first access. Null when the response was streamed
+	 */
 	public String getResponse() {
+		if (response == null && lastResponse != null) {
+			response = lastResponse.getBody();
+		}
 		return response;
 	}
 
@@ -64,8 +96,152 @@ public class RestClient {
 		return responseCode;
 	}
 
+	/**
+	 * Create a client which uses the shared {@link RestConnectionPool#getDefault()} pool
+	 */
 	public RestClient(final String baseUrl) {
+		this(baseUrl, RestConnectionPool.getDefault());
+	}
+
+	public RestClient(final String baseUrl, final RestConnectionPool pool) {
+		this(baseUrl, pool, RestExecutor.getDefault());
+	}
+
+	/**
+	 * @param executor runs the requests made via the executeAsync methods
+	 */
+	public RestClient(final String baseUrl, final RestConnectionPool pool, final RestExecutor executor) {
 		this.baseUrl = baseUrl;
+		this.transport = pool;
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the gson used to deserialize json responses, e.g. one with custom
+	 * type adapters registered. Set before sharing this client between threads
+	 */
+	public void setGson(final Gson gson) {
+		this.gson = gson;
+	}
+
+	public Gson getGson() {
+		return gson;
+	}
+
+	/**
+	 * Cache GET responses executed with a buffered body (not the streaming
+	 * methods), keyed by url and request headers. Null, the default, disables
+	 * caching. Set before sharing this client between threads, a cache can be
+	 * shared by many clients
+	 */
+	public void setResponseCache(final ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Ask for gzip or deflate compressed responses, decoding them
+	 * transparently. On by default, a request with its own Accept-Encoding
+	 * header is left alone
+	 */
+	public void setAcceptCompressed(final boolean acceptCompressed) {
+		this.acceptCompressed = acceptCompressed;
+	}
+
+	public boolean isAcceptCompressed() {
+		return acceptCompressed;
+	}
+
+	/**
+	 * Decides which failed requests are sent again, e.g. an
+	 * {@link ExponentialBackoffRetryPolicy}. Defaults to {@link RetryPolicy#NONE}.
+	 * Requests with a body which can't be re-read are never retried
+	 */
+	public void setRetryPolicy(final RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Fail fast for hosts which keep failing. Null, the default, disables it.
+	 * A breaker can be shared by many clients
+	 */
+	public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Let identical concurrent GETs (same url, params and headers) share a
+	 * single request and result. Applies to the buffered and json methods.
+	 * Null, the default, disables it. A coalescer can be shared by many clients
+	 */
+	public void setRequestCoalescer(final RequestCoalescer requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	public RequestCoalescer getRequestCoalescer() {
+		return requestCoalescer;
+	}
+
+	/**
+	 * Send requests via another transport, e.g. a {@link UrlConnectionTransport},
+	 * instead of the connection pool the client was created with. Set before
+	 * sharing this client between threads
+	 */
+	public void setTransport(final RestTransport transport) {
+		this.transport = transport;
+	}
+
+	public RestTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Told the timings of every attempt at a request, e.g. a
+	 * {@link RestMetrics}. Null, the default, disables timing. Set before
+	 * sharing this client between threads
+	 */
+	public void setListener(final RestListener listener) {
+		this.listener = listener;
+	}
+
+	public RestListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Limit and schedule the requests in flight per host, by
+	 * {@link RestRequest.Priority}. Null, the default, sends every request
+	 * straight away. A dispatcher can be shared by many clients
+	 */
+	public void setDispatcher(final RestDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	public RestDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * The timeouts of requests which don't set their own. Any not set are
+	 * taken from {@link RestTimeouts#DEFAULT}
+	 */
+	public void setTimeouts(final RestTimeouts timeouts) {
+		this.timeouts = timeouts.withDefaults(RestTimeouts.DEFAULT);
+	}
+
+	public RestTimeouts getTimeouts() {
+		return timeouts;
 	}
 
 	public void addParam(final String name, final String value) {
@@ -84,6 +260,22 @@ public class RestClient {
 		params.add(new InputStreamPair(name, bytes));
 	}
 
+	/**
+	 * Upload the file as a multipart part, streamed from disk when sent
+	 */
+	public void addParam(final String name, final File file) {
+		params.add(new InputStreamPair(name, file));
+	}
+
+	/**
+	 * Upload the stream as a multipart part. The stream is closed once sent
+	 *
+	 * @param length the number of bytes to send, or -1 if not known
+	 */
+	public void addParam(final String name, final InputStream stream, final long length) {
+		params.add(new InputStreamPair(name, stream, length));
+	}
+
 	public void addHeader(final String name, final String value) {
 		headers.add(new BasicNameValuePair(name, value));
 	}
@@ -100,149 +292,604 @@ public class RestClient {
 
 
 	public Value getHeaderValue(final String name){
+		if (lastResponse != null) {
+			return lastResponse.getHeaderValue(name);
+		}
 		final Header h = httpResponse.getFirstHeader(name);
 		return new Value( name, h==null?null:h.getValue() );
 	}
 
 	public HttpResponse execute(final RequestMethod method) throws RestClientException {
-		switch (method) {
-		case GET: {
-			// add parameters
-			final StringBuilder queryString = new StringBuilder();
-			if (!params.isEmpty()) {
-				queryString.append("?");
-				for (final NameValuePair p : params) {
-					if( !(p instanceof InputStreamPair)){
-						if (queryString.length() > 1) {
-							queryString.append("&");
-						}
-						queryString.append(p.getName());
-						queryString.append('=');
-						try {
-							queryString.append(URLEncoder.encode(p.getValue(),
-									"UTF-8"));
-						} catch (final UnsupportedEncodingException e) {
-							// should never be throw as we should always be able to
-							// encode to UTF-8
-							throw new RestClientException(
-									"Unexpected query param encoding issue", e);
-						}
-					}
+		final RestResponse read = executeBuffered(newCall(toRequest(method)));
+		responseCode = read.getStatusCode();
+		message = read.getReasonPhrase();
+		lastResponse = read;
+		response = null;
+		httpResponse = null;
+		checkStatus(responseCode);
+		return getHttpResponse();
+	}
+
+	/**
+	 * Execute the request on the {@link RestExecutor}. The current params and
+	 * headers are captured before this returns, so later changes to them do
+	 * not affect the request. The response fields of this client are not
+	 * updated, use the returned {@link RestResponse} instead
+	 */
+	public Future<RestResponse> executeAsync(final RequestMethod method) throws RestClientException {
+		return executeAsync(toRequest(method));
+	}
+
+	/**
+	 * As {@link #executeAsync(RequestMethod)}, notifying the callback once the
+	 * request completes
+	 */
+	public Future<RestResponse> executeAsync(final RequestMethod method, final RestCallback<RestResponse> callback) throws RestClientException {
+		return executeAsync(toRequest(method), callback);
+	}
+
+	/**
+	 * Execute the request without reading the body. The caller must close the
+	 * returned response (or its stream) to release the connection
+	 */
+	public StreamingResponse executeStreaming(final RequestMethod method) throws RestClientException {
+		final StreamingResponse streaming = openStreaming(newCall(toRequest(method)));
+		httpResponse = streaming.getHttpResponse();
+		responseCode = streaming.getStatusCode();
+		message = streaming.getReasonPhrase();
+		lastResponse = null;
+		response = null;
+		checkStatus(streaming);
+		return streaming;
+	}
+
+	/**
+	 * Execute the request and pass the unread body to the given handler. The
+	 * connection is released once the handler returns
+	 */
+	public <T> T execute(final RequestMethod method, final RestResponseHandler<T> handler) throws RestClientException {
+		return handle(executeStreaming(method), handler);
+	}
+
+	/**
+	 * Execute the request and deserialize the json response body into the given type
+	 */
+	public <T> T executeJson(final RequestMethod method, final Class<T> type) throws RestClientException {
+		return execute(method, new JsonResponseHandler<T>(gson, type));
+	}
+
+	/**
+	 * Snapshot the current params and headers into a request
+	 */
+	private RestRequest toRequest(final RequestMethod method) {
+		return newRequest(method).params(params).headers(headers).build();
+	}
+
+	/**
+	 * @return a new request builder for this client's base url
+	 */
+	public RestRequest.Builder newRequest(final RequestMethod method) {
+		return RestRequest.newBuilder(method, baseUrl);
+	}
+
+	/**
+	 * @param path appended to this client's base url, with <code>{name}</code>
+	 *            placeholders. Compile once and keep the template
+	 */
+	public UrlTemplate newTemplate(final String path) {
+		return UrlTemplate.compile(baseUrl + path);
+	}
+
+	/**
+	 * @return a call executing the request with this client's timeouts, which
+	 *         can be cancelled from another thread
+	 */
+	public RestCall newCall(final RestRequest request) {
+		final RestTimeouts requestTimeouts = request.getTimeouts();
+		return new RestCall(this, request, requestTimeouts == null ? timeouts : requestTimeouts.withDefaults(timeouts));
+	}
+
+	/**
+	 * Execute the request, reading the whole body. Thread safe, does not touch
+	 * the response fields of this client
+	 */
+	public RestResponse execute(final RestRequest request) throws RestClientException {
+		return newCall(request).execute();
+	}
+
+	RestResponse execute(final RestCall call) throws RestClientException {
+		final RestResponse response = executeBuffered(call);
+		checkStatus(response.getStatusCode());
+		return response;
+	}
+
+	/**
+	 * Execute the request without reading the body. The caller must close the
+	 * returned response (or its stream) to release the connection. Thread safe
+	 */
+	public StreamingResponse executeStreaming(final RestRequest request) throws RestClientException {
+		return newCall(request).executeStreaming();
+	}
+
+	StreamingResponse executeStreaming(final RestCall call) throws RestClientException {
+		final StreamingResponse streaming = openStreaming(call);
+		checkStatus(streaming);
+		return streaming;
+	}
+
+	/**
+	 * Execute the request and pass the unread body to the given handler. The
+	 * connection is released once the handler returns. Thread safe
+	 */
+	public <T> T execute(final RestRequest request, final RestResponseHandler<T> handler) throws RestClientException {
+		return handle(executeStreaming(request), handler);
+	}
+
+	/**
+	 * Execute the request and deserialize the json response body straight
+	 * from the stream. Thread safe
+	 */
+	public <T> T executeJson(final RestRequest request, final Class<T> type) throws RestClientException {
+		return executeJson(request, (Type) type);
+	}
+
+	/**
+	 * As {@link #executeJson(RestRequest, Class)} for generic types, e.g. from
+	 * a gson TypeToken
+	 */
+	public <T> T executeJson(final RestRequest request, final Type type) throws RestClientException {
+		final RequestCoalescer coalescer = requestCoalescer;
+		if (coalescer == null || request.getMethod() != RequestMethod.GET) {
+			return execute(request, new JsonResponseHandler<T>(gson, type));
+		}
+		final RestCall call = newCall(request);
+		// started here, so the deadline also covers waiting on another call
+		call.start();
+		try {
+			// keyed on the type too, as the shared result is the parsed object
+			return coalescer.execute(type + "\n" + requestKey(request), call, new Callable<T>() {
+				@Override
+				public T call() throws RestClientException {
+					final StreamingResponse streaming = openStarted(call);
+					checkStatus(streaming);
+					return handle(streaming, new JsonResponseHandler<T>(gson, type));
 				}
+			});
+		} finally {
+			call.finish();
+		}
+	}
+
+	/**
+	 * Execute a request whose response body is a json array, returning an
+	 * iterator which deserializes one element at a time. The iterator must be
+	 * closed. Thread safe
+	 */
+	public <T> JsonArrayIterator<T> executeJsonArray(final RestRequest request, final Class<T> elementType) throws RestClientException {
+		return executeJsonArray(request, (Type) elementType);
+	}
+
+	public <T> JsonArrayIterator<T> executeJsonArray(final RestRequest request, final Type elementType) throws RestClientException {
+		return new JsonArrayIterator<T>(executeStreaming(request), gson, elementType);
+	}
+
+	/**
+	 * @return a download of the GET request's response straight to the target
+	 *         file, resuming any earlier interrupted download of it
+	 */
+	public FileDownload newDownload(final RestRequest request, final File target) {
+		return new FileDownload(this, request, target);
+	}
+
+	RestExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Execute the request on the {@link RestExecutor}. Cancelling the returned
+	 * future with mayInterruptIfRunning aborts the request
+	 */
+	public Future<RestResponse> executeAsync(final RestRequest request) {
+		final RestCall call = newCall(request);
+		return new CallFuture<RestResponse>(executor.submit(newTask(call)), call);
+	}
+
+	/**
+	 * Execute the request on the {@link RestExecutor}, notifying the callback
+	 * once the request completes
+	 */
+	public Future<RestResponse> executeAsync(final RestRequest request, final RestCallback<RestResponse> callback) {
+		final RestCall call = newCall(request);
+		return new CallFuture<RestResponse>(executor.submit(newTask(call), callback), call);
+	}
+
+	private static Callable<RestResponse> newTask(final RestCall call) {
+		return new Callable<RestResponse>() {
+			@Override
+			public RestResponse call() throws RestClientException {
+				return call.execute();
 			}
-			final HttpGet get = new HttpGet(baseUrl + queryString.toString());
-			//get.getParams().setParameter(ClientPNames.COOKIE_POLICY,CookiePolicy.RFC_2965);
+		};
+	}
+
+	private static <T> T handle(final StreamingResponse streaming, final RestResponseHandler<T> handler) throws RestClientException {
+		try {
+			return handler.handle(streaming);
+		} catch (final IOException e) {
+			streaming.abort();
+			throw streaming.getCall().failure("Error reading response from server", e);
+		} finally {
+			streaming.close();
+		}
+	}
+
+	private static void checkStatus(final int statusCode) throws RestClientException {
+		if( HttpStatus.GATEWAY_TIMEOUT.equalsCode(statusCode)){
+			throw new RestClientException("Timed out contatcing server. Http Status" + HttpStatus.GATEWAY_TIMEOUT );
+		}
+	}
+
+	private static void checkStatus(final StreamingResponse streaming) throws RestClientException {
+		try {
+			checkStatus(streaming.getStatusCode());
+		} catch (final RestClientException e) {
+			streaming.abort();
+			throw e;
+		}
+	}
 
-			// add headers
-			for (final NameValuePair h : headers) {
-				get.addHeader(h.getName(), h.getValue());
+	/**
+	 * Execute the request reading the whole body, going via the
+	 * {@link ResponseCache} for GETs if one is set
+	 */
+	private RestResponse executeBuffered(final RestCall call) throws RestClientException {
+		call.start();
+		try {
+			final RequestCoalescer coalescer = requestCoalescer;
+			if (coalescer == null || call.getRequest().getMethod() != RequestMethod.GET) {
+				return executeBuffered(call, call.getRequest());
 			}
-			return executeRequest(get, baseUrl);
+			return coalescer.execute(requestKey(call.getRequest()), call, new Callable<RestResponse>() {
+				@Override
+				public RestResponse call() throws RestClientException {
+					return executeBuffered(call, call.getRequest());
+				}
+			});
+		} finally {
+			call.finish();
 		}
-		case POST: {
-			final HttpPost post = new HttpPost(baseUrl);
-			//post.getParams().setParameter(ClientPNames.COOKIE_POLICY,CookiePolicy.RFC_2965);
+	}
 
-			// add headers
-			for (final NameValuePair h : headers) {
-				post.addHeader(h.getName(), h.getValue());
+	private RestResponse executeBuffered(final RestCall call, final RestRequest request) throws RestClientException {
+		final ResponseCache cache = responseCache;
+		if (cache == null || request.getMethod() != RequestMethod.GET) {
+			return readResponse(call, null, null);
+		}
+		// with the headers, so one user's response isn't served to another
+		final String key = requestKey(request);
+		final ResponseCache.Entry cached = cache.get(key);
+		if (cached == null) {
+			cache.recordMiss();
+		} else if (cached.isFresh()) {
+			cache.recordHit();
+			return cached.getResponse();
+		} else {
+			cache.recordRevalidation();
+		}
+		final RestResponse response = readResponse(call, cache, cached);
+		if (cached != null && HttpStatus.NOT_MODIFIED.equalsCode(response.getStatusCode())) {
+			return cache.putRevalidated(cached, response).getResponse();
+		}
+		cache.put(key, response);
+		return response;
+	}
+
+	/**
+	 * Send the request and read the whole body, retrying as the
+	 * {@link RetryPolicy} decides
+	 *
+	 * @param stale a cached response to revalidate, or null
+	 */
+	private RestResponse readResponse(final RestCall call, final ResponseCache cache, final ResponseCache.Entry stale) throws RestClientException {
+		final RestRequest request = call.getRequest();
+		for (int attempt = 1;; attempt++) {
+			final HttpUriRequest httpRequest = request.toHttpRequest(gson);
+			if (stale != null) {
+				cache.addValidators(stale, httpRequest);
+			}
+			// attach first, so a stopped call doesn't take the trial of a half open circuit
+			call.attach(httpRequest);
+			final String host = acquireCircuit(httpRequest);
+			final RestResponse read;
+			try {
+				read = readResponse(httpRequest, call);
+			} catch (final RestClientException e) {
+				call.pause(retryDelay(call, attempt, host, -1, null, e));
+				continue;
+			} catch (final RuntimeException e) {
+				releaseCircuit(host);
+				throw e;
+			}
+			final long delay = retryDelay(call, attempt, host, read.getStatusCode(), read.getHeaderValue(RETRY_AFTER).asString(), null);
+			if (delay < 0) {
+				return read;
 			}
-			// set the post params
-			if (!params.isEmpty()) {
-				boolean hasBinary = false;
-				//see if we have any binary data. if we do have to handle this differently
-				for (final NameValuePair p : params) {
-					if( p instanceof InputStreamPair){
-						hasBinary = true;
-						break;
-					}
+			call.pause(delay);
+		}
+	}
+
+	/**
+	 * Send the request leaving the body unread, retrying as the
+	 * {@link RetryPolicy} decides
+	 */
+	private StreamingResponse openStreaming(final RestCall call) throws RestClientException {
+		call.start();
+		return openStarted(call);
+	}
+
+	/**
+	 * As {@link #openStreaming(RestCall)} for a call already started
+	 */
+	private StreamingResponse openStarted(final RestCall call) throws RestClientException {
+		final RestRequest request = call.getRequest();
+		try {
+			for (int attempt = 1;; attempt++) {
+				final HttpUriRequest httpRequest = request.toHttpRequest(gson);
+				call.attach(httpRequest);
+				final String host = acquireCircuit(httpRequest);
+				final TransferCounter counter = new TransferCounter();
+				final HttpResponse opened;
+				try {
+					opened = openResponse(httpRequest, call, counter);
+				} catch (final RestClientException e) {
+					call.pause(retryDelay(call, attempt, host, -1, null, e));
+					continue;
+				} catch (final RuntimeException e) {
+					releaseCircuit(host);
+					throw e;
 				}
-				if( hasBinary ){
-					final MultipartEntity multiPart = new MultipartEntity();
-					for (final NameValuePair p : params) {
-						if( p instanceof InputStreamPair){
-							final InputStreamPair data = (InputStreamPair)p;
-							multiPart.addPart(p.getName(),new InputStreamBody(data.getInputStream(), p.getName()));
-						} else {
-							try {
-                                multiPart.addPart(p.getName(),new StringBody(p.getValue()));
-                            } catch (final UnsupportedEncodingException e) {
-                                throw new RestClientException(String.format("Could not encode param '%s' for http POST", p.getName() ),e);
-                            }
-						}
-					}
-					post.setEntity(multiPart);
-				} else {
-					try {
-						post.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
-					} catch (final UnsupportedEncodingException e) {
-						// should never be throw as we should always be able to
-						// encode to UTF-8
-						throw new RestClientException(
-								"Unexpected post param encoding issue", e);
-					}
+				final int statusCode = opened.getStatusLine().getStatusCode();
+				final Header retryAfter = opened.getFirstHeader(RETRY_AFTER);
+				final long delay = retryDelay(call, attempt, host, statusCode, retryAfter == null ? null : retryAfter.getValue(), null);
+				if (delay < 0) {
+					// the call finishes once the body is closed
+					return new StreamingResponse(httpRequest, opened, counter, call);
 				}
+				// don't hold the connection while waiting
+				consumeQuietly(httpRequest, opened);
+				endAttempt(counter, null);
+				call.pause(delay);
+			}
+		} catch (final RestClientException e) {
+			call.finish();
+			throw e;
+		} catch (final RuntimeException e) {
+			call.finish();
+			throw e;
+		}
+	}
+
+	private static void consumeQuietly(final HttpUriRequest httpRequest, final HttpResponse opened) {
+		try {
+			if (opened.getEntity() != null) {
+				opened.getEntity().consumeContent();
+			}
+		} catch (final IOException e) {
+			httpRequest.abort();
+		}
+	}
+
+	/**
+	 * @return the uri and headers of the request, which identify its response
+	 *         for caching and coalescing
+	 */
+	private String requestKey(final RestRequest request) throws RestClientException {
+		return RequestCoalescer.key(request.toHttpRequest(gson).getURI().toString(), request.getHeaders());
+	}
+
+	/**
+	 * @return the circuit breaker key of the request's host
+	 * @throws CircuitOpenException if the circuit for the host is open
+	 */
+	private String acquireCircuit(final HttpUriRequest httpRequest) throws CircuitOpenException {
+		final String host = httpRequest.getURI().getAuthority();
+		final CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null) {
+			breaker.acquire(host);
+		}
+		return host;
+	}
+
+	private void releaseCircuit(final String host) {
+		final CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null) {
+			breaker.release(host);
+		}
+	}
+
+	/**
+	 * @return false for failures which say nothing about the host, such as
+	 *         the call being cancelled or waiting too long for a connection
+	 */
+	private static boolean isHostFailure(final RestClientException failure) {
+		return !(failure instanceof RestCancelledException || failure instanceof RestDeadlineException || failure instanceof RestPoolTimeoutException);
+	}
+
+	/**
+	 * Record the outcome of an attempt with the {@link CircuitBreaker} and ask
+	 * the {@link RetryPolicy} whether to try again
+	 *
+	 * @return the delay before the next attempt, or -1 to use this response
+	 * @throws RestClientException the failure, if not retrying it
+	 */
+	private long retryDelay(final RestCall call, final int attempt, final String host, final int statusCode, final String retryAfter, final RestClientException failure) throws RestClientException {
+		final CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null) {
+			if (failure != null && !isHostFailure(failure)) {
+				breaker.release(host);
+			} else if (failure != null || HttpStatus.isServerError(statusCode)) {
+				breaker.recordFailure(host);
+			} else {
+				breaker.recordSuccess(host);
 			}
-			return executeRequest(post, baseUrl);
 		}
-		default:{
-			throw new RestClientException( "Unknown request type " + method );
+		final RestRequest request = call.getRequest();
+		final boolean retryable = request.isRepeatable() && !call.isStopped();
+		final long delay = retryable ? retryPolicy.getRetryDelay(request, attempt, statusCode, parseRetryAfter(retryAfter), failure) : -1;
+		if (delay < 0 && failure != null) {
+			throw failure;
 		}
+		if (delay >= 0 && LOG.isDebugEnabled()) {
+			LOG.debug("Retrying {} request to '{}' in {}ms after {}", request.getMethod(), request.getUrl(), delay, failure == null ? "status " + statusCode : failure.getCause());
 		}
+		return delay;
 	}
 
-	private HttpResponse executeRequest(final HttpUriRequest request, final String url) throws RestClientException {
-		final HttpClient client = new DefaultHttpClient();
+	/**
+	 * @return the Retry-After header, either delta seconds or a date, in
+	 *         millis from now. -1 if missing or invalid
+	 */
+	static long parseRetryAfter(final String value) {
+		if (value == null) {
+			return -1;
+		}
 		try {
-		    if( LOG.isDebugEnabled()){
-		        LOG.debug(String.format("Making HTTP %s request to '%s'", request.getMethod(), url));
-		    }
+			return Math.max(0, Long.parseLong(value.trim()) * 1000);
+		} catch (final NumberFormatException e) {
 			try {
-				httpResponse = client.execute(request);
-	            if( LOG.isDebugEnabled()){
-	                LOG.debug(String.format("Request completed with http status %s",httpResponse.getStatusLine().getStatusCode()));
-	            }
-			} catch (final Exception e) {
-				throw new RestClientException("Error sending request to server", e);
+				return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+			} catch (final DateParseException e2) {
+				return -1;
 			}
+		}
+	}
 
-			responseCode = httpResponse.getStatusLine().getStatusCode();
-			message = httpResponse.getStatusLine().getReasonPhrase();
+	/**
+	 * Send the request, leaving the body unread. Any compressed response body
+	 * is decoded as it is read
+	 */
+	private HttpResponse openResponse(final HttpUriRequest httpRequest, final RestCall call, final TransferCounter counter) throws RestClientException {
+		final RestRequest request = call.getRequest();
+		final RestTransport transport = this.transport;
+		LOG.debug("Making HTTP {} request to '{}'", httpRequest.getMethod(), request.getUrl());
+		if (acceptCompressed) {
+			ContentCoding.acceptCompressed(httpRequest);
+		}
+		ContentCoding.encodeRequest(httpRequest, request.isCompressBody(), counter);
+		final RestDispatcher dispatcher = this.dispatcher;
+		if (dispatcher != null) {
+			counter.slot = dispatcher.acquire(httpRequest.getURI().getAuthority(), call);
+		}
+		final RestListener listener = this.listener;
+		final RequestTimings timings = listener == null ? null : RequestTimings.start(request, httpRequest, listener);
+		counter.timings = timings;
+		try {
+			final HttpResponse opened = transport.execute(httpRequest);
+			if (timings != null) {
+				timings.headersReceived(opened.getStatusLine().getStatusCode());
+			}
+			LOG.debug("Request completed with http status {}", opened.getStatusLine().getStatusCode());
+			ContentCoding.decodeResponse(opened, counter);
+			return opened;
+		} catch (final Exception e) {
+			httpRequest.abort();
+			final RestClientException failure = call.failure("Error sending request to server", e);
+			endAttempt(counter, failure);
+			throw failure;
+		}
+	}
 
-			final HttpEntity entity = httpResponse.getEntity();
+	/**
+	 * Hand on the dispatcher slot, if any, and tell the listener, if any, the
+	 * attempt is over
+	 *
+	 * @param failure the failure, or null if the response was read
+	 */
+	static void endAttempt(final TransferCounter counter, final RestClientException failure) {
+		final RestDispatcher.Slot slot = counter.slot;
+		if (slot != null) {
+			slot.release();
+		}
+		final RequestTimings timings = counter.timings;
+		if (timings != null) {
+			timings.end(counter.getStats(), failure);
+		}
+	}
 
-			if (entity != null) {
-				InputStream is = null;
-				try {
-					is = entity.getContent();
-					response = IOUtils.toString(is);
-					// Closing the input stream will trigger connection release
-				} catch (final Exception e) {
-					throw new RestClientException("Error reading response from server",e);
-				} finally {
-					IOUtils.closeQuietly(is);
-				}
-			}
-		    if( HttpStatus.GATEWAY_TIMEOUT.equalsCode(responseCode)){
-                throw new RestClientException("Timed out contatcing server. Http Status" + HttpStatus.GATEWAY_TIMEOUT );
-	        }
-			return httpResponse;
-		}  finally {
-			if (client != null) {
-				try {
-					client.getConnectionManager().shutdown();
-				} catch (final Exception e) {
-				    LOG.warn("Error shutting down rest client",e);
-					//throw new RestClientException("Error shutting down rest client",e);
-				}
-			}
+	/**
+	 * Send the request once and read the whole body, releasing the connection
+	 * back to the pool
+	 */
+	private RestResponse readResponse(final HttpUriRequest httpRequest, final RestCall call) throws RestClientException {
+		final TransferCounter counter = new TransferCounter();
+		final HttpResponse opened = openResponse(httpRequest, call, counter);
+		final HttpEntity entity = opened.getEntity();
+		if (entity == null) {
+			endAttempt(counter, null);
+			return new RestResponse(opened, null, null, counter.getStats());
+		}
+		try {
+			// reading to the end releases the connection back to the pool
+			final byte[] body = EntityUtils.toByteArray(entity);
+			endAttempt(counter, null);
+			return new RestResponse(opened, body, EntityUtils.getContentCharSet(entity), counter.getStats());
+		} catch (final Exception e) {
+			// don't return a half read connection to the pool
+			httpRequest.abort();
+			final RestClientException failure = call.failure("Error reading response from server", e);
+			endAttempt(counter, failure);
+			throw failure;
 		}
 	}
 
 	public HttpResponse getHttpResponse() {
+		if (httpResponse == null && lastResponse != null) {
+			httpResponse = lastResponse.toHttpResponse();
+		}
 		return httpResponse;
 	}
 
+	/**
+	 * Aborts the call when cancelled
+	 */
+	private static class CallFuture<T> implements Future<T> {
+		private final Future<T> future;
+		private final RestCall call;
+
+		CallFuture(final Future<T> future, final RestCall call) {
+			this.future = future;
+			this.call = call;
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			if (mayInterruptIfRunning) {
+				call.cancel();
+			}
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			return future.get();
+		}
+
+		@Override
+		public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return future.get(timeout, unit);
+		}
+	}
+
 	public static class Value {
 		private final String value;
 		private final String name;
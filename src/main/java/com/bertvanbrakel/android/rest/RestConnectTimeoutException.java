@@ -0,0 +1,17 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown when a connection to the server could not be made within the connect timeout
+ */
+public class RestConnectTimeoutException extends RestTimeoutException {
+
+    private static final long serialVersionUID = -6210863014352719077L;
+
+    public RestConnectTimeoutException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public RestConnectTimeoutException(final String message) {
+        super(message);
+    }
+}
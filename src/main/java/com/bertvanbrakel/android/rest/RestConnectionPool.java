@@ -0,0 +1,380 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import com.bertvanbrakel.android.lang.Logger;
+import com.bertvanbrakel.android.lang.ThrottledLogger;
+
+/**
+ * A thread safe, keep-alive connection pool shared by {@link RestClient}s so
+ * repeated calls to the same host reuse open connections instead of paying
+ * for a new TCP connection (and TLS handshake) on every request. The default
+ * {@link RestTransport}, sending requests via Apache's http client.
+ */
+public class RestConnectionPool implements RestTransport {
+
+    private static final Logger LOG = Logger.get(RestConnectionPool.class);
+    /** Shutting down fails alike for every client while the network is down */
+    private static final ThrottledLogger THROTTLED_LOG = LOG.throttled(5, 1, TimeUnit.MINUTES);
+
+    public static final int DEFAULT_MAX_TOTAL = 20;
+    public static final int DEFAULT_MAX_PER_ROUTE = 5;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 30 * 1000;
+
+    private static RestConnectionPool defaultPool;
+
+    private final CountingConnManager connManager;
+    private final DefaultHttpClient httpClient;
+    private final int maxTotal;
+    private final int maxPerRoute;
+
+    private Thread idleEvictor;
+
+    public RestConnectionPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_KEEP_ALIVE_MS);
+    }
+
+    /**
+     * @param maxTotal max number of connections across all hosts
+     * @param maxPerRoute max number of connections to any single host
+     * @param keepAliveMs how long to keep an idle connection open if the server
+     *            does not say otherwise via a 'Keep-Alive' header
+     */
+    public RestConnectionPool(final int maxTotal, final int maxPerRoute, final long keepAliveMs) {
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+
+        final HttpParams params = new BasicHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, maxTotal);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerRoute));
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        RestTimeouts.DEFAULT.applyTo(params);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+
+        final SchemeRegistry schemes = new SchemeRegistry();
+        schemes.register(new Scheme("http", new TimingSocketFactory(PlainSocketFactory.getSocketFactory()), 80));
+        schemes.register(new Scheme("https", new TimingLayeredSocketFactory(SSLSocketFactory.getSocketFactory()), 443));
+
+        connManager = new CountingConnManager(params, schemes);
+        httpClient = new DefaultHttpClient(connManager, params);
+        httpClient.setKeepAliveStrategy(new DefaultingKeepAliveStrategy(keepAliveMs));
+    }
+
+    /**
+     * The pool used by {@link RestClient}s which were not given one explicitly
+     */
+    public static synchronized RestConnectionPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new RestConnectionPool();
+        }
+        return defaultPool;
+    }
+
+    /**
+     * The shared client. Safe to use from multiple threads at once
+     */
+    public DefaultHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * The pooled client is shared, so each request gets its own cookie store
+     * to prevent cookies leaking between unrelated requests
+     */
+    @Override
+    public HttpResponse execute(final HttpUriRequest request) throws IOException {
+        final HttpContext context = new BasicHttpContext();
+        context.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+        return httpClient.execute(request, context);
+    }
+
+    /**
+     * Set the max connections for a single host, overriding the pool wide per
+     * route default
+     */
+    public void setMaxForRoute(final HttpRoute route, final int max) {
+        final ConnPerRouteBean perRoute = (ConnPerRouteBean) ConnManagerParams.getMaxConnectionsPerRoute(httpClient.getParams());
+        perRoute.setMaxForRoute(route, max);
+    }
+
+    public void closeIdleConnections(final long idleTime, final TimeUnit unit) {
+        connManager.closeIdleConnections(idleTime, unit);
+    }
+
+    public void closeExpiredConnections() {
+        connManager.closeExpiredConnections();
+    }
+
+    /**
+     * Start a background daemon thread which periodically closes expired
+     * connections and those which have been idle longer than the given time.
+     * Calling this more than once replaces the previous evictor
+     */
+    public synchronized void startIdleEvictor(final long idleTime, final TimeUnit unit) {
+        stopIdleEvictor();
+        final long idleMs = unit.toMillis(idleTime);
+        final long sleepMs = Math.max(1000, idleMs / 2);
+        idleEvictor = new Thread("RestConnectionPool-evictor") {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        Thread.sleep(sleepMs);
+                        closeExpiredConnections();
+                        closeIdleConnections(idleMs, TimeUnit.MILLISECONDS);
+                    }
+                } catch (final InterruptedException e) {
+                    // stopped
+                }
+            }
+        };
+        idleEvictor.setDaemon(true);
+        idleEvictor.start();
+    }
+
+    public synchronized void stopIdleEvictor() {
+        if (idleEvictor != null) {
+            idleEvictor.interrupt();
+            idleEvictor = null;
+        }
+    }
+
+    /**
+     * Stop the evictor and close all pooled connections. The pool can not be
+     * used after this
+     */
+    public void shutdown() {
+        stopIdleEvictor();
+        try {
+            connManager.shutdown();
+        } catch (final Exception e) {
+            THROTTLED_LOG.warn("Error shutting down connection pool", e);
+        }
+    }
+
+    public Stats getStats() {
+        final int leased = connManager.leased.get();
+        final int inPool = connManager.getConnectionsInPool();
+        return new Stats(leased, Math.max(0, inPool - leased), connManager.pending.get(), maxTotal, maxPerRoute);
+    }
+
+    /**
+     * Point in time snapshot of the pool usage
+     */
+    public static class Stats {
+        private final int leased;
+        private final int available;
+        private final int pending;
+        private final int maxTotal;
+        private final int maxPerRoute;
+
+        Stats(final int leased, final int available, final int pending, final int maxTotal, final int maxPerRoute) {
+            this.leased = leased;
+            this.available = available;
+            this.pending = pending;
+            this.maxTotal = maxTotal;
+            this.maxPerRoute = maxPerRoute;
+        }
+
+        /**
+         * Number of connections currently in use by a request
+         */
+        public int getLeased() {
+            return leased;
+        }
+
+        /**
+         * Number of open idle connections ready for reuse
+         */
+        public int getAvailable() {
+            return available;
+        }
+
+        /**
+         * Number of requests waiting for a connection to become available
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        public int getMaxTotal() {
+            return maxTotal;
+        }
+
+        public int getMaxPerRoute() {
+            return maxPerRoute;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[leased:%d, available:%d, pending:%d, maxTotal:%d, maxPerRoute:%d]", leased, available, pending, maxTotal, maxPerRoute);
+        }
+    }
+
+    /**
+     * Keeps track of leased and pending connections, which the underlying pool
+     * does not expose
+     */
+    private static class CountingConnManager extends ThreadSafeClientConnManager {
+
+        final AtomicInteger leased = new AtomicInteger();
+        final AtomicInteger pending = new AtomicInteger();
+
+        CountingConnManager(final HttpParams params, final SchemeRegistry schemes) {
+            super(params, schemes);
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(final long timeout, final TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException {
+                    final RequestTimings timings = RequestTimings.current();
+                    final long start = timings == null ? 0 : System.nanoTime();
+                    pending.incrementAndGet();
+                    try {
+                        final ManagedClientConnection conn = request.getConnection(timeout, unit);
+                        leased.incrementAndGet();
+                        return conn;
+                    } finally {
+                        pending.decrementAndGet();
+                        if (timings != null) {
+                            timings.poolAcquired(System.nanoTime() - start);
+                        }
+                    }
+                }
+
+                @Override
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(final ManagedClientConnection conn, final long validDuration, final TimeUnit timeUnit) {
+            try {
+                super.releaseConnection(conn, validDuration, timeUnit);
+            } finally {
+                leased.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Times the dns lookup and connect of new connections for the request
+     * being timed on this thread, if any. The host is resolved up front so the
+     * lookup can be timed on its own, the wrapped factory's own lookup then
+     * being answered from the jvm's cache
+     */
+    private static class TimingSocketFactory implements SocketFactory {
+        private final SocketFactory factory;
+
+        TimingSocketFactory(final SocketFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return factory.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(final Socket sock, final String host, final int port, final InetAddress localAddress, final int localPort,
+                final HttpParams params) throws IOException {
+            final RequestTimings timings = RequestTimings.current();
+            if (timings == null) {
+                return factory.connectSocket(sock, host, port, localAddress, localPort, params);
+            }
+            final long start = System.nanoTime();
+            InetAddress.getAllByName(host);
+            final long resolved = System.nanoTime();
+            timings.dnsResolved(resolved - start);
+            final Socket connected = factory.connectSocket(sock, host, port, localAddress, localPort, params);
+            timings.connected(System.nanoTime() - resolved);
+            return connected;
+        }
+
+        @Override
+        public boolean isSecure(final Socket sock) {
+            return factory.isSecure(sock);
+        }
+    }
+
+    private static class TimingLayeredSocketFactory extends TimingSocketFactory implements LayeredSocketFactory {
+        private final LayeredSocketFactory factory;
+
+        TimingLayeredSocketFactory(final LayeredSocketFactory factory) {
+            super(factory);
+            this.factory = factory;
+        }
+
+        @Override
+        public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException {
+            return factory.createSocket(socket, host, port, autoClose);
+        }
+    }
+
+    /**
+     * Use the server supplied 'Keep-Alive: timeout=x' if given, else fall back
+     * to our default so idle connections don't live forever
+     */
+    private static class DefaultingKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long defaultMs;
+
+        DefaultingKeepAliveStrategy(final long defaultMs) {
+            this.defaultMs = defaultMs;
+        }
+
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            final HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                final HeaderElement he = it.nextElement();
+                if (he.getValue() != null && "timeout".equalsIgnoreCase(he.getName())) {
+                    try {
+                        return Long.parseLong(he.getValue()) * 1000;
+                    } catch (final NumberFormatException ignore) {
+                        // fall through to default
+                    }
+                }
+            }
+            return defaultMs;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown when a request, including any retries, did not complete before its deadline
+ */
+public class RestDeadlineException extends RestTimeoutException {
+
+    private static final long serialVersionUID = -1493038612954702617L;
+
+    public RestDeadlineException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public RestDeadlineException(final String message) {
+        super(message);
+    }
+}
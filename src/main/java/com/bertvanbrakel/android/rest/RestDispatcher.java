@@ -0,0 +1,318 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.bertvanbrakel.android.rest.RestRequest.Priority;
+
+/**
+ * Schedules requests, so a burst of slow bulk transfers can't starve the
+ * calls someone is waiting on. Limits the number of requests in flight in
+ * total and per host, queueing the rest:
+ * <ul>
+ * <li>interactive requests to a host go before its background ones, and
+ * background requests never take a host's last free slot</li>
+ * <li>free slots are handed to the hosts with queued requests in turn, so a
+ * busy host can't hold up the others</li>
+ * </ul>
+ * A request holds its slot until its body has been read, or its streaming
+ * response closed. Time in the queue counts towards the pool timeout of the
+ * request's {@link RestTimeouts}. Set via
+ * {@link RestClient#setDispatcher(RestDispatcher)}, thread safe, and can be
+ * shared by many clients.
+ */
+public class RestDispatcher {
+
+    public static final int DEFAULT_MAX_REQUESTS = RestConnectionPool.DEFAULT_MAX_TOTAL;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = RestConnectionPool.DEFAULT_MAX_PER_ROUTE;
+
+    private final int maxRequests;
+    private final int maxRequestsPerHost;
+    private final int maxBackgroundPerHost;
+
+    // guarded by this
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    private final ArrayDeque<Host> waitingHosts = new ArrayDeque<Host>();
+    private int running;
+
+    private final Map<Priority, LatencyHistogram> waitTimes = new EnumMap<Priority, LatencyHistogram>(Priority.class);
+
+    public RestDispatcher() {
+        this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * Keep the limits within the connection pool's, or requests will wait on
+     * the pool as well
+     */
+    public RestDispatcher(final int maxRequests, final int maxRequestsPerHost) {
+        if (maxRequests < 1 || maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException(String.format("Limits must be at least 1, got %d total and %d per host", maxRequests, maxRequestsPerHost));
+        }
+        this.maxRequests = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.maxBackgroundPerHost = Math.max(1, maxRequestsPerHost - 1);
+        for (final Priority p : Priority.values()) {
+            waitTimes.put(p, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Wait for a slot to send the call's request to the host
+     *
+     * @return the slot, to release once the response is done with
+     * @throws RestPoolTimeoutException if no slot became free within the pool
+     *             timeout. As the host wasn't tried, this doesn't count
+     *             against its {@link CircuitBreaker} circuit
+     */
+    Slot acquire(final String host, final RestCall call) throws RestClientException {
+        final Priority priority = call.getRequest().getPriority();
+        final Waiter waiter = new Waiter(host, priority);
+        synchronized (this) {
+            final Host h = host(host);
+            h.queue(priority).add(waiter);
+            if (h.queued() == 1) {
+                waitingHosts.add(h);
+            }
+            dispatch();
+        }
+        final long start = System.nanoTime();
+        call.setStopHook(waiter.signal);
+        try {
+            final long timeoutMs = call.getTimeouts().getPoolTimeoutMillis();
+            final boolean granted = waiter.signal.await(timeoutMs > 0 ? timeoutMs : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (!granted || call.isStopped()) {
+                abandon(waiter);
+                if (call.isStopped()) {
+                    throw call.failure("Stopped waiting to send " + call.getRequest(), null);
+                }
+                throw new RestPoolTimeoutException(String.format("No free slot for %s within %dms, %d queued", host, timeoutMs, getQueued(host)));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(waiter);
+            throw new RestCancelledException("Interrupted waiting to send " + call.getRequest(), e);
+        } finally {
+            call.setStopHook(null);
+        }
+        waitTimes.get(priority).record((System.nanoTime() - start) / 1000);
+        return new Slot(host);
+    }
+
+    /**
+     * Grant free slots to the queued requests, taking hosts in turn
+     */
+    private void dispatch() {
+        int skipped = 0;
+        while (running < maxRequests && skipped < waitingHosts.size()) {
+            final Host h = waitingHosts.poll();
+            final Waiter next = h.next(maxRequestsPerHost, maxBackgroundPerHost);
+            if (next == null) {
+                skipped++;
+            } else {
+                skipped = 0;
+                running++;
+                h.running++;
+                next.granted = true;
+                next.signal.countDown();
+            }
+            if (h.queued() > 0) {
+                // to the back of the line
+                waitingHosts.add(h);
+            }
+        }
+    }
+
+    /**
+     * Give up waiting, handing on the slot if it was granted meanwhile
+     */
+    private synchronized void abandon(final Waiter waiter) {
+        if (waiter.granted) {
+            release(waiter.host);
+            return;
+        }
+        final Host h = hosts.get(waiter.host);
+        h.queue(waiter.priority).remove(waiter);
+        if (h.queued() == 0) {
+            waitingHosts.remove(h);
+        }
+        removeIfIdle(h);
+    }
+
+    private synchronized void release(final String host) {
+        final Host h = hosts.get(host);
+        running--;
+        h.running--;
+        removeIfIdle(h);
+        dispatch();
+    }
+
+    private Host host(final String host) {
+        Host h = hosts.get(host);
+        if (h == null) {
+            h = new Host(host);
+            hosts.put(host, h);
+        }
+        return h;
+    }
+
+    private void removeIfIdle(final Host h) {
+        if (h.running == 0 && h.queued() == 0) {
+            hosts.remove(h.name);
+        }
+    }
+
+    private synchronized int getQueued(final String host) {
+        final Host h = hosts.get(host);
+        return h == null ? 0 : h.queued();
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public synchronized Stats getStats() {
+        final Map<String, Integer> runningByHost = new TreeMap<String, Integer>();
+        final Map<String, Integer> queuedByHost = new TreeMap<String, Integer>();
+        int queued = 0;
+        for (final Host h : hosts.values()) {
+            runningByHost.put(h.name, h.running);
+            queuedByHost.put(h.name, h.queued());
+            queued += h.queued();
+        }
+        final Map<Priority, LatencyHistogram.Snapshot> waits = new EnumMap<Priority, LatencyHistogram.Snapshot>(Priority.class);
+        for (final Map.Entry<Priority, LatencyHistogram> e : waitTimes.entrySet()) {
+            waits.put(e.getKey(), e.getValue().snapshot());
+        }
+        return new Stats(running, queued, runningByHost, queuedByHost, waits);
+    }
+
+    /**
+     * Held by a request while it is in flight
+     */
+    final class Slot {
+        private final String host;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Slot(final String host) {
+            this.host = host;
+        }
+
+        /**
+         * Hand the slot on to the next queued request. Only the first call counts
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                RestDispatcher.this.release(host);
+            }
+        }
+    }
+
+    private static class Waiter {
+        final String host;
+        final Priority priority;
+        final CountDownLatch signal = new CountDownLatch(1);
+        // guarded by the dispatcher
+        boolean granted;
+
+        Waiter(final String host, final Priority priority) {
+            this.host = host;
+            this.priority = priority;
+        }
+    }
+
+    private static class Host {
+        final String name;
+        final ArrayDeque<Waiter> interactive = new ArrayDeque<Waiter>();
+        final ArrayDeque<Waiter> background = new ArrayDeque<Waiter>();
+        int running;
+
+        Host(final String name) {
+            this.name = name;
+        }
+
+        ArrayDeque<Waiter> queue(final Priority priority) {
+            return priority == Priority.BACKGROUND ? background : interactive;
+        }
+
+        int queued() {
+            return interactive.size() + background.size();
+        }
+
+        /**
+         * @return the next waiter allowed to run, or null if none is
+         */
+        Waiter next(final int maxRunning, final int maxBackground) {
+            if (running >= maxRunning) {
+                return null;
+            }
+            if (!interactive.isEmpty()) {
+                return interactive.poll();
+            }
+            if (running < maxBackground) {
+                return background.poll();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Point in time snapshot of the dispatcher
+     */
+    public static class Stats {
+        private final int running;
+        private final int queued;
+        private final Map<String, Integer> runningByHost;
+        private final Map<String, Integer> queuedByHost;
+        private final Map<Priority, LatencyHistogram.Snapshot> waitTimes;
+
+        Stats(final int running, final int queued, final Map<String, Integer> runningByHost, final Map<String, Integer> queuedByHost,
+                final Map<Priority, LatencyHistogram.Snapshot> waitTimes) {
+            this.running = running;
+            this.queued = queued;
+            this.runningByHost = Collections.unmodifiableMap(runningByHost);
+            this.queuedByHost = Collections.unmodifiableMap(queuedByHost);
+            this.waitTimes = Collections.unmodifiableMap(waitTimes);
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public Map<String, Integer> getRunningByHost() {
+            return runningByHost;
+        }
+
+        public Map<String, Integer> getQueuedByHost() {
+            return queuedByHost;
+        }
+
+        /**
+         * @return how long requests of each priority waited for a slot, since
+         *         the dispatcher was created
+         */
+        public Map<Priority, LatencyHistogram.Snapshot> getWaitTimes() {
+            return waitTimes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[running:%d, queued:%d, queuedByHost:%s, waitTimes:%s]", running, queued, queuedByHost, waitTimes);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.bertvanbrakel.android.rest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bertvanbrakel.android.lang.Logger;
+
+/**
+ * Runs asynchronous rest requests, capping the number of requests in flight
+ * at any one time. Requests over the cap are queued until a slot frees up.
+ * <p>
+ * Uses virtual threads when the runtime supports them, otherwise a pool of at
+ * most maxInFlight daemon threads.
+ */
+public class RestExecutor {
+
+    private static final Logger LOG = Logger.get(RestExecutor.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private static RestExecutor defaultExecutor;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    public RestExecutor() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public RestExecutor(final int maxInFlight) {
+        this(newExecutorService(maxInFlight), maxInFlight);
+    }
+
+    public RestExecutor(final ExecutorService executor, final int maxInFlight) {
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * The executor used by {@link RestClient}s which were not given one explicitly
+     */
+    public static synchronized RestExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new RestExecutor();
+        }
+        return defaultExecutor;
+    }
+
+    public <T> Future<T> submit(final Callable<T> task) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                inFlight.acquire();
+                try {
+                    return task.call();
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Submit the task, notifying the callback on completion
+     */
+    public <T> Future<T> submit(final Callable<T> task, final RestCallback<T> callback) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result;
+                try {
+                    result = task.call();
+                } catch (final RestClientException e) {
+                    callback.onFailure(e);
+                    throw e;
+                } catch (final Exception e) {
+                    callback.onFailure(new RestClientException("Error executing request", e));
+                    throw e;
+                }
+                callback.onSuccess(result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @return number of requests currently executing
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static ExecutorService newExecutorService(final int maxInFlight) {
+        final ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "RestExecutor-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Looked up reflectively as virtual threads are only available on newer
+     * JVMs, never on android
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        } catch (final Exception e) {
+            LOG.debug("Virtual threads not available, using a thread pool", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Told about every attempt at a request a {@link RestClient} makes, e.g. a
+ * {@link RestMetrics}. Set via {@link RestClient#setListener(RestListener)};
+ * with none set nothing is timed.
+ * <p>
+ * Called on the thread which made the request, or which closed a streaming
+ * response, so must be thread safe and quick.
+ */
+public interface RestListener {
+
+    void onRequestEnd(RequestTimings timings);
+}
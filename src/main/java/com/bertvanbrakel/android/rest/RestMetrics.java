@@ -0,0 +1,203 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bertvanbrakel.android.rest.HttpStatus.StatusClass;
+import com.bertvanbrakel.android.rest.RequestTimings.Outcome;
+
+/**
+ * A {@link RestListener} keeping latency histograms per host and per
+ * {@link StatusClass}, histograms of each phase of a request, and counts of
+ * outcomes and bytes. Read via {@link #snapshot()}, or over JMX with
+ * {@link RestMetricsJmx}. Thread safe, and can be shared by many clients.
+ */
+public class RestMetrics implements RestListener {
+
+    private final ConcurrentMap<String, LatencyHistogram> byHost = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final Map<StatusClass, LatencyHistogram> byStatusClass = new EnumMap<StatusClass, LatencyHistogram>(StatusClass.class);
+    private final LatencyHistogram poolAcquire = new LatencyHistogram();
+    private final LatencyHistogram dns = new LatencyHistogram();
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram firstByte = new LatencyHistogram();
+    private final LatencyHistogram bodyRead = new LatencyHistogram();
+    private final Map<Outcome, AtomicLong> outcomes = new EnumMap<Outcome, AtomicLong>(Outcome.class);
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    public RestMetrics() {
+        for (final Outcome o : Outcome.values()) {
+            outcomes.put(o, new AtomicLong());
+        }
+        for (final StatusClass c : StatusClass.values()) {
+            byStatusClass.put(c, new LatencyHistogram());
+        }
+    }
+
+    @Override
+    public void onRequestEnd(final RequestTimings t) {
+        final long totalMicros = t.getTotalNanos() / 1000;
+        histogram(byHost, t.getHost()).record(totalMicros);
+        byStatusClass.get(StatusClass.of(t.getStatusCode())).record(totalMicros);
+        recordPhase(poolAcquire, t.getPoolAcquireNanos());
+        recordPhase(dns, t.getDnsNanos());
+        recordPhase(connect, t.getConnectNanos());
+        recordPhase(firstByte, t.getFirstByteNanos());
+        recordPhase(bodyRead, t.getBodyReadNanos());
+        outcomes.get(t.getOutcome()).incrementAndGet();
+        bytesSent.addAndGet(t.getTransferStats().getRequestWireBytes());
+        bytesReceived.addAndGet(t.getTransferStats().getResponseWireBytes());
+    }
+
+    private static void recordPhase(final LatencyHistogram h, final long nanos) {
+        if (nanos >= 0) {
+            h.record(nanos / 1000);
+        }
+    }
+
+    private static LatencyHistogram histogram(final ConcurrentMap<String, LatencyHistogram> map, final String key) {
+        LatencyHistogram h = map.get(key);
+        if (h == null) {
+            final LatencyHistogram created = new LatencyHistogram();
+            h = map.putIfAbsent(key, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        return h;
+    }
+
+    public Snapshot snapshot() {
+        final Map<Outcome, Long> outcomeCounts = new EnumMap<Outcome, Long>(Outcome.class);
+        for (final Map.Entry<Outcome, AtomicLong> e : outcomes.entrySet()) {
+            outcomeCounts.put(e.getKey(), e.getValue().get());
+        }
+        final Map<StatusClass, LatencyHistogram.Snapshot> classes = new EnumMap<StatusClass, LatencyHistogram.Snapshot>(StatusClass.class);
+        for (final Map.Entry<StatusClass, LatencyHistogram> e : byStatusClass.entrySet()) {
+            classes.put(e.getKey(), e.getValue().snapshot());
+        }
+        return new Snapshot(snapshot(byHost), Collections.unmodifiableMap(classes), poolAcquire.snapshot(), dns.snapshot(), connect.snapshot(), firstByte.snapshot(),
+                bodyRead.snapshot(), outcomeCounts, bytesSent.get(), bytesReceived.get());
+    }
+
+    private static Map<String, LatencyHistogram.Snapshot> snapshot(final Map<String, LatencyHistogram> histograms) {
+        final Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (final Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            snapshots.put(e.getKey(), e.getValue().snapshot());
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Point in time copy of the metrics. Latencies are of whole attempts, from
+     * sending to the body being read
+     */
+    public static class Snapshot {
+        private final Map<String, LatencyHistogram.Snapshot> byHost;
+        private final Map<StatusClass, LatencyHistogram.Snapshot> byStatusClass;
+        private final LatencyHistogram.Snapshot poolAcquire;
+        private final LatencyHistogram.Snapshot dns;
+        private final LatencyHistogram.Snapshot connect;
+        private final LatencyHistogram.Snapshot firstByte;
+        private final LatencyHistogram.Snapshot bodyRead;
+        private final Map<Outcome, Long> outcomes;
+        private final long bytesSent;
+        private final long bytesReceived;
+
+        Snapshot(final Map<String, LatencyHistogram.Snapshot> byHost, final Map<StatusClass, LatencyHistogram.Snapshot> byStatusClass,
+                final LatencyHistogram.Snapshot poolAcquire, final LatencyHistogram.Snapshot dns, final LatencyHistogram.Snapshot connect,
+                final LatencyHistogram.Snapshot firstByte, final LatencyHistogram.Snapshot bodyRead, final Map<Outcome, Long> outcomes, final long bytesSent,
+                final long bytesReceived) {
+            this.byHost = byHost;
+            this.byStatusClass = byStatusClass;
+            this.poolAcquire = poolAcquire;
+            this.dns = dns;
+            this.connect = connect;
+            this.firstByte = firstByte;
+            this.bodyRead = bodyRead;
+            this.outcomes = Collections.unmodifiableMap(outcomes);
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * @return latencies by host and port
+         */
+        public Map<String, LatencyHistogram.Snapshot> getByHost() {
+            return byHost;
+        }
+
+        /**
+         * @return latencies by status class, attempts which got no response
+         *         being {@link StatusClass#UNKNOWN}
+         */
+        public Map<StatusClass, LatencyHistogram.Snapshot> getByStatusClass() {
+            return byStatusClass;
+        }
+
+        public LatencyHistogram.Snapshot getPoolAcquire() {
+            return poolAcquire;
+        }
+
+        /**
+         * Only attempts which opened a new connection, and could time the lookup
+         */
+        public LatencyHistogram.Snapshot getDns() {
+            return dns;
+        }
+
+        /**
+         * Only attempts which opened a new connection
+         */
+        public LatencyHistogram.Snapshot getConnect() {
+            return connect;
+        }
+
+        public LatencyHistogram.Snapshot getFirstByte() {
+            return firstByte;
+        }
+
+        public LatencyHistogram.Snapshot getBodyRead() {
+            return bodyRead;
+        }
+
+        public Map<Outcome, Long> getOutcomes() {
+            return outcomes;
+        }
+
+        /**
+         * @return number of attempts, including retries
+         */
+        public long getRequests() {
+            long total = 0;
+            for (final Long c : outcomes.values()) {
+                total += c;
+            }
+            return total;
+        }
+
+        /**
+         * @return request body bytes as sent over the wire
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * @return response body bytes as received over the wire
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[outcomes:%s, byHost:%s, byStatusClass:%s, sent:%d, received:%d]", outcomes, byHost, byStatusClass, bytesSent, bytesReceived);
+        }
+    }
+}
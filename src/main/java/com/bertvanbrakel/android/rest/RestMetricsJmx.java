@@ -0,0 +1,100 @@
+package com.bertvanbrakel.android.rest;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes a {@link RestMetrics} as an MXBean, for jconsole and friends.
+ * Desktop and server JVMs only, Android has no JMX. The metrics are only
+ * read when the bean is.
+ */
+public class RestMetricsJmx implements RestMetricsMXBean {
+
+    private final RestMetrics metrics;
+
+    private RestMetricsJmx(final RestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server
+     *
+     * @param name identifies the metrics, e.g. the name of the service called
+     * @return the name registered under, to unregister with
+     */
+    public static ObjectName register(final RestMetrics metrics, final String name) throws JMException {
+        final ObjectName objectName = new ObjectName("com.bertvanbrakel.android.rest:type=RestMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new RestMetricsJmx(metrics), objectName);
+        return objectName;
+    }
+
+    public static void unregister(final ObjectName objectName) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    @Override
+    public long getRequests() {
+        return metrics.snapshot().getRequests();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return metrics.snapshot().getBytesSent();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return metrics.snapshot().getBytesReceived();
+    }
+
+    @Override
+    public Map<String, Long> getOutcomes() {
+        final Map<String, Long> outcomes = new LinkedHashMap<String, Long>();
+        for (final Map.Entry<RequestTimings.Outcome, Long> e : metrics.snapshot().getOutcomes().entrySet()) {
+            outcomes.put(e.getKey().name(), e.getValue());
+        }
+        return outcomes;
+    }
+
+    @Override
+    public Map<String, String> getHosts() {
+        return summaries(metrics.snapshot().getByHost());
+    }
+
+    @Override
+    public Map<String, String> getStatusClasses() {
+        final Map<String, String> summaries = new LinkedHashMap<String, String>();
+        for (final Map.Entry<HttpStatus.StatusClass, LatencyHistogram.Snapshot> e : metrics.snapshot().getByStatusClass().entrySet()) {
+            summaries.put(e.getKey().name(), e.getValue().toString());
+        }
+        return summaries;
+    }
+
+    @Override
+    public Map<String, String> getPhases() {
+        final RestMetrics.Snapshot s = metrics.snapshot();
+        final Map<String, String> phases = new LinkedHashMap<String, String>();
+        phases.put("poolAcquire", s.getPoolAcquire().toString());
+        phases.put("dns", s.getDns().toString());
+        phases.put("connect", s.getConnect().toString());
+        phases.put("firstByte", s.getFirstByte().toString());
+        phases.put("bodyRead", s.getBodyRead().toString());
+        return phases;
+    }
+
+    private static Map<String, String> summaries(final Map<String, LatencyHistogram.Snapshot> snapshots) {
+        final Map<String, String> summaries = new LinkedHashMap<String, String>();
+        for (final Map.Entry<String, LatencyHistogram.Snapshot> e : snapshots.entrySet()) {
+            summaries.put(e.getKey(), e.getValue().toString());
+        }
+        return summaries;
+    }
+}
@@ -0,0 +1,31 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link RestMetrics}, see {@link RestMetricsJmx}
+ */
+public interface RestMetricsMXBean {
+    long getRequests();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    Map<String, Long> getOutcomes();
+
+    /**
+     * Latency summary per host
+     */
+    Map<String, String> getHosts();
+
+    /**
+     * Latency summary per status class
+     */
+    Map<String, String> getStatusClasses();
+
+    /**
+     * Latency summary per phase of a request
+     */
+    Map<String, String> getPhases();
+}
@@ -0,0 +1,18 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown when no pooled connection became free within the pool acquire timeout.
+ * The request was never sent
+ */
+public class RestPoolTimeoutException extends RestTimeoutException {
+
+    private static final long serialVersionUID = 8864921450935812230L;
+
+    public RestPoolTimeoutException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public RestPoolTimeoutException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown when the server sent nothing for longer than the read timeout
+ */
+public class RestReadTimeoutException extends RestTimeoutException {
+
+    private static final long serialVersionUID = 2317798920462160943L;
+
+    public RestReadTimeoutException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public RestReadTimeoutException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,403 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HTTP;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+import com.google.gson.Gson;
+
+/**
+ * Immutable description of a single request. Safe to share between threads
+ * and to execute any number of times. Create via {@link #newBuilder(RequestMethod, String)}
+ * or {@link RestClient#newRequest(RequestMethod)}
+ */
+public final class RestRequest {
+
+    /**
+     * How a {@link RestDispatcher} schedules the request against others to
+     * the same host
+     */
+    public static enum Priority {
+        /** Someone is waiting on it, the default */
+        INTERACTIVE,
+        /** Bulk or prefetch work, which never takes a host's last free slot */
+        BACKGROUND
+    }
+
+    private final RequestMethod method;
+    private final String url;
+    private final List<NameValuePair> params;
+    private final List<NameValuePair> headers;
+    private final HttpEntity body;
+    private final Object jsonBody;
+    private final Type jsonBodyType;
+    private final boolean compressBody;
+    private final RestTimeouts timeouts;
+    private final Priority priority;
+    private volatile String urlWithQuery;
+
+    private RestRequest(final Builder builder) {
+        this.method = builder.method;
+        this.url = builder.url;
+        this.body = builder.body;
+        this.jsonBody = builder.jsonBody;
+        this.jsonBodyType = builder.jsonBodyType;
+        this.compressBody = builder.compressBody;
+        this.timeouts = builder.timeouts;
+        this.priority = builder.priority;
+        this.params = Collections.unmodifiableList(new ArrayList<NameValuePair>(builder.params));
+        this.headers = Collections.unmodifiableList(new ArrayList<NameValuePair>(builder.headers));
+    }
+
+    public static Builder newBuilder(final RequestMethod method, final String url) {
+        return new Builder(method, url);
+    }
+
+    /**
+     * @return a builder pre-populated with this request, to create a modified copy
+     */
+    public Builder toBuilder() {
+        final Builder b = new Builder(method, url);
+        b.params.addAll(params);
+        b.headers.addAll(headers);
+        b.body = body;
+        b.jsonBody = jsonBody;
+        b.jsonBodyType = jsonBodyType;
+        b.compressBody = compressBody;
+        b.timeouts = timeouts;
+        b.priority = priority;
+        return b;
+    }
+
+    public RequestMethod getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public List<NameValuePair> getParams() {
+        return params;
+    }
+
+    public List<NameValuePair> getHeaders() {
+        return headers;
+    }
+
+    public boolean hasBody() {
+        return body != null || jsonBodyType != null;
+    }
+
+    /**
+     * @return false if the body can only be sent once, so the request can't
+     *         be retried
+     */
+    boolean isRepeatable() {
+        if (body != null) {
+            return body.isRepeatable();
+        }
+        for (final NameValuePair p : params) {
+            if (p instanceof InputStreamPair && !((InputStreamPair) p).isRepeatable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isCompressBody() {
+        return compressBody;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the timeouts overriding the client's, or null to use the client's
+     */
+    public RestTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Build a new http request. A new one is created each call as they can
+     * only be executed once
+     *
+     * @param gson used to serialize any json body
+     */
+    HttpUriRequest toHttpRequest(final Gson gson) throws RestClientException {
+        switch (method) {
+        case GET: {
+            final HttpGet get = new HttpGet(urlWithQuery());
+            addHeaders(get);
+            return get;
+        }
+        case POST: {
+            return addEntity(hasBody() ? new HttpPost(urlWithQuery()) : new HttpPost(url), gson);
+        }
+        case PUT: {
+            return addEntity(hasBody() ? new HttpPut(urlWithQuery()) : new HttpPut(url), gson);
+        }
+        default: {
+            throw new RestClientException("Unknown request type " + method);
+        }
+        }
+    }
+
+    /**
+     * Set the explicit body if given, with any params then going in the query
+     * string. Otherwise the params are sent as the form body
+     */
+    private HttpUriRequest addEntity(final HttpEntityEnclosingRequestBase request, final Gson gson) throws RestClientException {
+        addHeaders(request);
+        if (body != null) {
+            request.setEntity(body);
+        } else if (jsonBodyType != null) {
+            request.setEntity(new JsonEntity(gson, jsonBody, jsonBodyType));
+        } else if (!params.isEmpty()) {
+            if (hasBinaryParams()) {
+                request.setEntity(buildMultipartEntity());
+            } else {
+                try {
+                    request.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
+                } catch (final UnsupportedEncodingException e) {
+                    // should never be throw as we should always be able to
+                    // encode to UTF-8
+                    throw new RestClientException("Unexpected post param encoding issue", e);
+                }
+            }
+        }
+        return request;
+    }
+
+    /**
+     * The url with the query string. Built once, and the http requests then
+     * share it, as this request can't change
+     */
+    private String urlWithQuery() {
+        String uri = urlWithQuery;
+        if (uri == null) {
+            final StringBuilder sb = UrlEncoding.buffer().append(url);
+            char separator = url.indexOf('?') < 0 ? '?' : '&';
+            for (final NameValuePair p : params) {
+                if (!(p instanceof InputStreamPair)) {
+                    sb.append(separator).append(p.getName()).append('=');
+                    UrlEncoding.appendQuery(sb, p.getValue());
+                    separator = '&';
+                }
+            }
+            uri = sb.toString();
+            urlWithQuery = uri;
+        }
+        return uri;
+    }
+
+    private boolean hasBinaryParams() {
+        for (final NameValuePair p : params) {
+            if (p instanceof InputStreamPair) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private MultipartEntity buildMultipartEntity() throws RestClientException {
+        final boolean repeatable = isRepeatable();
+        final MultipartEntity multiPart = new MultipartEntity() {
+            @Override
+            public boolean isRepeatable() {
+                // a stream part declaring its length would otherwise count as repeatable
+                return repeatable && super.isRepeatable();
+            }
+
+            @Override
+            public boolean isChunked() {
+                // only when a part's length isn't known, not whenever it can't be repeated
+                return getContentLength() < 0;
+            }
+        };
+        for (final NameValuePair p : params) {
+            if (p instanceof InputStreamPair) {
+                final InputStreamPair data = (InputStreamPair) p;
+                multiPart.addPart(p.getName(), data.toContentBody());
+            } else {
+                try {
+                    multiPart.addPart(p.getName(), new StringBody(p.getValue()));
+                } catch (final UnsupportedEncodingException e) {
+                    throw new RestClientException(String.format("Could not encode param '%s' for http POST", p.getName()), e);
+                }
+            }
+        }
+        return multiPart;
+    }
+
+    private void addHeaders(final HttpUriRequest request) {
+        for (final NameValuePair h : headers) {
+            request.addHeader(h.getName(), h.getValue());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+
+    /**
+     * Not thread safe. Build the request then share the result
+     */
+    public static class Builder {
+        private final RequestMethod method;
+        private final String url;
+        private final List<NameValuePair> params = new ArrayList<NameValuePair>();
+        private final List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        private HttpEntity body;
+        private Object jsonBody;
+        private Type jsonBodyType;
+        private boolean compressBody;
+        private RestTimeouts timeouts;
+        private Priority priority = Priority.INTERACTIVE;
+
+        Builder(final RequestMethod method, final String url) {
+            this.method = method;
+            this.url = url;
+        }
+
+        public Builder param(final String name, final String value) {
+            params.add(new BasicNameValuePair(name, value));
+            return this;
+        }
+
+        public Builder param(final String name, final int value) {
+            return param(name, Integer.toString(value));
+        }
+
+        public Builder param(final String name, final boolean value) {
+            return param(name, Boolean.toString(value));
+        }
+
+        public Builder param(final String name, final byte[] bytes) {
+            params.add(new InputStreamPair(name, bytes));
+            return this;
+        }
+
+        /**
+         * Upload the file as a multipart part, streamed from disk when sent
+         */
+        public Builder param(final String name, final File file) {
+            params.add(new InputStreamPair(name, file));
+            return this;
+        }
+
+        /**
+         * Upload the stream as a multipart part. The stream is closed once
+         * sent, so the request can only be executed once
+         *
+         * @param length the number of bytes to send, or -1 if not known
+         */
+        public Builder param(final String name, final InputStream stream, final long length) {
+            params.add(new InputStreamPair(name, stream, length));
+            return this;
+        }
+
+        public Builder params(final Collection<? extends NameValuePair> params) {
+            this.params.addAll(params);
+            return this;
+        }
+
+        public Builder header(final String name, final String value) {
+            headers.add(new BasicNameValuePair(name, value));
+            return this;
+        }
+
+        public Builder headers(final Collection<? extends NameValuePair> headers) {
+            this.headers.addAll(headers);
+            return this;
+        }
+
+        public Builder headers(final Map<String, String> nameValues) {
+            for (final Map.Entry<String, String> e : nameValues.entrySet()) {
+                header(e.getKey(), e.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Send the given entity as the body of a POST or PUT. Any params are
+         * then sent in the query string. The entity must be repeatable if the
+         * request is to be executed more than once
+         */
+        public Builder body(final HttpEntity body) {
+            this.body = body;
+            this.jsonBody = null;
+            this.jsonBodyType = null;
+            return this;
+        }
+
+        /**
+         * Send the object as a json body of a POST or PUT, serialized straight
+         * onto the connection by the client's gson. Any params are then sent
+         * in the query string
+         */
+        public Builder jsonBody(final Object source) {
+            return jsonBody(source, source == null ? Object.class : source.getClass());
+        }
+
+        /**
+         * @param type the full generic type of the source, e.g. from a gson TypeToken
+         */
+        public Builder jsonBody(final Object source, final Type type) {
+            this.body = null;
+            this.jsonBody = source;
+            this.jsonBodyType = type;
+            return this;
+        }
+
+        /**
+         * Gzip the body of a POST or PUT. Only worth it for large, compressible
+         * bodies, and only if the server accepts gzipped requests
+         */
+        public Builder compressBody(final boolean compress) {
+            this.compressBody = compress;
+            return this;
+        }
+
+        /**
+         * Override the client's timeouts, those not set on the given timeouts
+         * are still taken from the client
+         */
+        public Builder timeouts(final RestTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
+        public Builder priority(final Priority priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public RestRequest build() {
+            return new RestRequest(this);
+        }
+    }
+}
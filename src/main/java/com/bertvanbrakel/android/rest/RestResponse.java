@@ -0,0 +1,165 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HTTP;
+
+import com.bertvanbrakel.android.rest.RestClient.Value;
+
+/**
+ * Immutable, fully read response. Safe to pass between threads
+ */
+public final class RestResponse {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Header[] headers;
+    private final byte[] body;
+    private final String charset;
+    private final TransferStats transferStats;
+
+    private volatile String bodyString;
+
+    RestResponse(final HttpResponse httpResponse, final byte[] body, final String charset, final TransferStats transferStats) {
+        this(httpResponse.getStatusLine().getStatusCode(), httpResponse.getStatusLine().getReasonPhrase(), httpResponse.getAllHeaders(), body, charset, transferStats);
+    }
+
+    RestResponse(final int statusCode, final String reasonPhrase, final Header[] headers, final byte[] body, final String charset, final TransferStats transferStats) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers;
+        this.body = body == null ? EMPTY : body;
+        this.charset = charset == null ? HTTP.UTF_8 : charset;
+        this.transferStats = transferStats;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * @return the first header with the given name. The value is null if no
+     *         such header exists
+     */
+    public Value getHeaderValue(final String name) {
+        for (final Header h : headers) {
+            if (h.getName().equalsIgnoreCase(name)) {
+                return new Value(name, h.getValue());
+            }
+        }
+        return new Value(name, null);
+    }
+
+    public Header[] getHeaders() {
+        return headers.clone();
+    }
+
+    public int getContentLength() {
+        return body.length;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the body decoded using the charset the server declared, or UTF-8
+     *         if none was given
+     */
+    public String getBody() {
+        String s = bodyString;
+        if (s == null) {
+            try {
+                s = new String(body, charset);
+            } catch (final UnsupportedEncodingException e) {
+                s = new String(body, Charset.forName(HTTP.UTF_8));
+            }
+            bodyString = s;
+        }
+        return s;
+    }
+
+    public InputStream getBodyAsStream() {
+        return new ByteArrayInputStream(body);
+    }
+
+    /**
+     * How many bytes were sent and received, compressed and uncompressed.
+     * {@link TransferStats#NONE} for responses served from a cache
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    RestResponse withTransferStats(final TransferStats stats) {
+        return new RestResponse(statusCode, reasonPhrase, headers, body, charset, stats);
+    }
+
+    /**
+     * The body bytes, not copied. Callers must not modify the result
+     */
+    byte[] getBodyBytes() {
+        return body;
+    }
+
+    /**
+     * @return a copy of this response with any headers of the same name
+     *         replaced by the given ones, e.g. from a 304 revalidation
+     */
+    RestResponse withUpdatedHeaders(final Header[] updates) {
+        final List<Header> merged = new ArrayList<Header>();
+        for (final Header h : headers) {
+            if (!containsName(updates, h.getName())) {
+                merged.add(h);
+            }
+        }
+        merged.addAll(Arrays.asList(updates));
+        return new RestResponse(statusCode, reasonPhrase, merged.toArray(new Header[merged.size()]), body, charset, transferStats);
+    }
+
+    private static boolean containsName(final Header[] headers, final String name) {
+        for (final Header h : headers) {
+            if (h.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recreate an http response for callers of the old api. The body can be
+     * read again from the returned entity
+     */
+    HttpResponse toHttpResponse() {
+        final BasicHttpResponse r = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, reasonPhrase));
+        r.setHeaders(headers);
+        final ByteArrayEntity entity = new ByteArrayEntity(body);
+        entity.setContentType(r.getFirstHeader(HTTP.CONTENT_TYPE));
+        entity.setContentEncoding(r.getFirstHeader(HTTP.CONTENT_ENCODING));
+        r.setEntity(entity);
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[status:%d %s, bytes:%d]", statusCode, reasonPhrase, body.length);
+    }
+}
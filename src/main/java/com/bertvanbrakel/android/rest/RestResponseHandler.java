@@ -0,0 +1,14 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+
+/**
+ * Callback to process a response body as a stream. The response is closed by
+ * the {@link RestClient} once the handler returns
+ *
+ * @param <T> the type of result the handler produces
+ */
+public interface RestResponseHandler<T> {
+
+    public T handle(final StreamingResponse response) throws IOException, RestClientException;
+}
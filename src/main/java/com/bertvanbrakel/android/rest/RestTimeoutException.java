@@ -0,0 +1,17 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Thrown when a request took longer than one of its {@link RestTimeouts}
+ */
+public class RestTimeoutException extends RestClientException {
+
+    private static final long serialVersionUID = 4178239468143952410L;
+
+    public RestTimeoutException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public RestTimeoutException(final String message) {
+        super(message);
+    }
+}
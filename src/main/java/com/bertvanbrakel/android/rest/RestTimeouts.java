@@ -0,0 +1,155 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Immutable set of timeouts for a request. Set per client via
+ * {@link RestClient#setTimeouts(RestTimeouts)}, and overridden per request via
+ * {@link RestRequest.Builder#timeouts(RestTimeouts)}, where any timeout not
+ * set falls back to the client's.
+ * <p>
+ * A timeout of 0 means wait forever.
+ */
+public final class RestTimeouts {
+
+    private static final long UNSET = -1;
+
+    /**
+     * 15s to connect, 30s between bytes read, 10s to get a pooled connection
+     * and no overall deadline
+     */
+    public static final RestTimeouts DEFAULT = newBuilder()
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .poolTimeout(10, TimeUnit.SECONDS)
+            .deadline(0, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final long connectMs;
+    private final long readMs;
+    private final long poolMs;
+    private final long deadlineMs;
+
+    private RestTimeouts(final long connectMs, final long readMs, final long poolMs, final long deadlineMs) {
+        this.connectMs = connectMs;
+        this.readMs = readMs;
+        this.poolMs = poolMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the max time to establish a connection, or -1 if not set
+     */
+    public long getConnectTimeoutMillis() {
+        return connectMs;
+    }
+
+    /**
+     * @return the max time to wait for the next bytes from the server, or -1 if not set
+     */
+    public long getReadTimeoutMillis() {
+        return readMs;
+    }
+
+    /**
+     * @return the max time to wait for a free pooled connection, or -1 if not set
+     */
+    public long getPoolTimeoutMillis() {
+        return poolMs;
+    }
+
+    /**
+     * @return the max time for the whole request including retries and, for
+     *         buffered responses, reading the body. -1 if not set
+     */
+    public long getDeadlineMillis() {
+        return deadlineMs;
+    }
+
+    /**
+     * @return these timeouts, with any not set taken from the given defaults
+     */
+    RestTimeouts withDefaults(final RestTimeouts defaults) {
+        return new RestTimeouts(
+                connectMs == UNSET ? defaults.connectMs : connectMs,
+                readMs == UNSET ? defaults.readMs : readMs,
+                poolMs == UNSET ? defaults.poolMs : poolMs,
+                deadlineMs == UNSET ? defaults.deadlineMs : deadlineMs);
+    }
+
+    /**
+     * Set the connect, read and pool timeouts which are set on the given params
+     */
+    void applyTo(final HttpParams params) {
+        if (connectMs != UNSET) {
+            HttpConnectionParams.setConnectionTimeout(params, toInt(connectMs));
+        }
+        if (readMs != UNSET) {
+            HttpConnectionParams.setSoTimeout(params, toInt(readMs));
+        }
+        if (poolMs != UNSET) {
+            ConnManagerParams.setTimeout(params, poolMs);
+        }
+    }
+
+    private static int toInt(final long ms) {
+        return (int) Math.min(Integer.MAX_VALUE, ms);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[connect:%d, read:%d, pool:%d, deadline:%d (ms)]", connectMs, readMs, poolMs, deadlineMs);
+    }
+
+    /**
+     * Timeouts not set are taken from the client's
+     */
+    public static class Builder {
+        private long connectMs = UNSET;
+        private long readMs = UNSET;
+        private long poolMs = UNSET;
+        private long deadlineMs = UNSET;
+
+        Builder() {
+        }
+
+        public Builder connectTimeout(final long timeout, final TimeUnit unit) {
+            connectMs = toMillis(timeout, unit);
+            return this;
+        }
+
+        public Builder readTimeout(final long timeout, final TimeUnit unit) {
+            readMs = toMillis(timeout, unit);
+            return this;
+        }
+
+        public Builder poolTimeout(final long timeout, final TimeUnit unit) {
+            poolMs = toMillis(timeout, unit);
+            return this;
+        }
+
+        public Builder deadline(final long timeout, final TimeUnit unit) {
+            deadlineMs = toMillis(timeout, unit);
+            return this;
+        }
+
+        private static long toMillis(final long timeout, final TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Timeout can't be negative, got " + timeout);
+            }
+            return unit.toMillis(timeout);
+        }
+
+        public RestTimeouts build() {
+            return new RestTimeouts(connectMs, readMs, poolMs, deadlineMs);
+        }
+    }
+}
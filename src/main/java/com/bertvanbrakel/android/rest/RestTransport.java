@@ -0,0 +1,33 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Sends requests for a {@link RestClient}. The client builds the request,
+ * handles compression, retries, caching and the like, and the transport only
+ * moves the bytes. Choose one per client with
+ * {@link RestClient#setTransport(RestTransport)}, the default being the
+ * client's {@link RestConnectionPool}.
+ * <p>
+ * Implementations must be thread safe.
+ */
+public interface RestTransport {
+
+    /**
+     * Send the request and open the response, leaving the body unread.
+     * Reading the body to the end or consuming it releases the connection.
+     * <p>
+     * The connect and read timeouts are given in the request's params, see
+     * {@link org.apache.http.params.HttpConnectionParams}. Aborting the
+     * request from another thread must fail a blocked call, and drop its
+     * connection.
+     *
+     * @throws org.apache.http.conn.ConnectTimeoutException if not connected
+     *             in time
+     * @throws java.net.SocketTimeoutException if the server stops sending
+     */
+    HttpResponse execute(HttpUriRequest request) throws IOException;
+}
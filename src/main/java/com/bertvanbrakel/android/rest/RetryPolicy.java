@@ -0,0 +1,34 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Decides whether, and after how long, a failed request is sent again.
+ * Implementations must be thread safe as one policy is shared by all requests
+ * of a {@link RestClient}
+ *
+ * @see ExponentialBackoffRetryPolicy
+ */
+public interface RetryPolicy {
+
+    /**
+     * Never retry
+     */
+    RetryPolicy NONE = new RetryPolicy() {
+        @Override
+        public long getRetryDelay(final RestRequest request, final int attempt, final int statusCode, final long retryAfterMillis, final RestClientException failure) {
+            return -1;
+        }
+    };
+
+    /**
+     * @param request the request which failed
+     * @param attempt how many times the request has been sent so far, starting at 1
+     * @param statusCode the response status, or -1 if no response was received
+     * @param retryAfterMillis the wait asked for by a Retry-After response
+     *            header, or -1 if there was none
+     * @param failure why no response was received, null if there was one
+     * @return how long to wait in milliseconds before sending the request
+     *         again, or -1 to not retry and return the response (or throw the
+     *         failure) as is
+     */
+    long getRetryDelay(RestRequest request, int attempt, int statusCode, long retryAfterMillis, RestClientException failure);
+}
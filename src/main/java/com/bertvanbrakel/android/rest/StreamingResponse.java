@@ -0,0 +1,158 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+
+import com.bertvanbrakel.android.lang.Logger;
+import com.bertvanbrakel.android.rest.ContentCoding.TransferCounter;
+import com.bertvanbrakel.android.rest.RestClient.Value;
+
+/**
+ * A response whose body has not been read yet. The body can be read exactly
+ * once via {@link #getInputStream()} or {@link #getReader()}, without ever
+ * holding the whole body in memory.
+ * <p>
+ * The underlying connection is held until the body stream or this response
+ * is closed. {@link #close()} drains any unread content so the connection can
+ * be reused, {@link #abort()} drops the connection instead which is cheaper
+ * when a large body is abandoned part way through.
+ */
+public class StreamingResponse implements Closeable {
+
+    private static final Logger LOG = Logger.get(StreamingResponse.class);
+
+    private final HttpUriRequest request;
+    private final HttpResponse httpResponse;
+    private final TransferCounter counter;
+    private final RestCall call;
+    private InputStream content;
+    private boolean closed;
+
+    StreamingResponse(final HttpUriRequest request, final HttpResponse httpResponse, final TransferCounter counter, final RestCall call) {
+        this.request = request;
+        this.httpResponse = httpResponse;
+        this.counter = counter;
+        this.call = call;
+    }
+
+    public int getStatusCode() {
+        return httpResponse.getStatusLine().getStatusCode();
+    }
+
+    public String getReasonPhrase() {
+        return httpResponse.getStatusLine().getReasonPhrase();
+    }
+
+    public Value getHeaderValue(final String name) {
+        final Header h = httpResponse.getFirstHeader(name);
+        return new Value(name, h == null ? null : h.getValue());
+    }
+
+    /**
+     * @return the length of the body in bytes, or -1 if not known
+     */
+    public long getContentLength() {
+        final HttpEntity entity = httpResponse.getEntity();
+        return entity == null ? 0 : entity.getContentLength();
+    }
+
+    /**
+     * @return the charset declared by the server, or UTF-8 if none was given
+     */
+    public String getContentCharset() {
+        final HttpEntity entity = httpResponse.getEntity();
+        final String charset = entity == null ? null : EntityUtils.getContentCharSet(entity);
+        return charset == null ? HTTP.UTF_8 : charset;
+    }
+
+    /**
+     * The raw body. Closing the returned stream releases the connection
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Response already closed");
+        }
+        if (content == null) {
+            final HttpEntity entity = httpResponse.getEntity();
+            final InputStream is = entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+            content = new FilterInputStream(is) {
+                @Override
+                public void close() throws IOException {
+                    StreamingResponse.this.close();
+                }
+            };
+        }
+        return content;
+    }
+
+    /**
+     * The body decoded using {@link #getContentCharset()}. Closing the returned
+     * reader releases the connection
+     */
+    public Reader getReader() throws IOException {
+        return new InputStreamReader(getInputStream(), getContentCharset());
+    }
+
+    /**
+     * Bytes transferred so far, the response counts grow as the body is read
+     */
+    public TransferStats getTransferStats() {
+        return counter.getStats();
+    }
+
+    public HttpResponse getHttpResponse() {
+        return httpResponse;
+    }
+
+    /**
+     * The call this is the response of, e.g. to cancel it
+     */
+    public RestCall getCall() {
+        return call;
+    }
+
+    /**
+     * Release the connection back to the pool, reading and discarding any
+     * unread content
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final HttpEntity entity = httpResponse.getEntity();
+        if (entity != null) {
+            try {
+                entity.consumeContent();
+            } catch (final IOException e) {
+                LOG.debug("Error consuming response, dropping connection", e);
+                request.abort();
+            }
+        }
+        RestClient.endAttempt(counter, null);
+        call.finish();
+    }
+
+    /**
+     * Drop the connection without reading the rest of the body
+     */
+    public synchronized void abort() {
+        closed = true;
+        request.abort();
+        RestClient.endAttempt(counter, null);
+        call.finish();
+    }
+}
@@ -0,0 +1,58 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * Bytes transferred by a single request, both as sent over the wire and
+ * before compression / after decompression
+ */
+public final class TransferStats {
+
+    /**
+     * Nothing transferred, e.g. for a response served from the cache
+     */
+    public static final TransferStats NONE = new TransferStats(0, 0, 0, 0);
+
+    private final long requestBytes;
+    private final long requestWireBytes;
+    private final long responseBytes;
+    private final long responseWireBytes;
+
+    TransferStats(final long requestBytes, final long requestWireBytes, final long responseBytes, final long responseWireBytes) {
+        this.requestBytes = requestBytes;
+        this.requestWireBytes = requestWireBytes;
+        this.responseBytes = responseBytes;
+        this.responseWireBytes = responseWireBytes;
+    }
+
+    /**
+     * Request body size before any compression
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * Request body size as sent
+     */
+    public long getRequestWireBytes() {
+        return requestWireBytes;
+    }
+
+    /**
+     * Response body size after decompression
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Response body size as received
+     */
+    public long getResponseWireBytes() {
+        return responseWireBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[request:%d/%d, response:%d/%d (raw/wire bytes)]", requestBytes, requestWireBytes, responseBytes, responseWireBytes);
+    }
+}
@@ -0,0 +1,191 @@
+package com.bertvanbrakel.android.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Sends requests via the platform's {@link HttpURLConnection}, which keeps
+ * its own pool of keep-alive connections. On Android this is the stack the
+ * platform maintains (OkHttp based from 4.4), with its TLS and protocol
+ * support, rather than the frozen Apache client.
+ * <p>
+ * Redirects are followed, caching and cookies are left to the
+ * {@link RestClient}. Thread safe.
+ */
+public class UrlConnectionTransport implements RestTransport {
+
+    @Override
+    public HttpResponse execute(final HttpUriRequest request) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) request.getURI().toURL().openConnection();
+        final Abort abort = new Abort(conn);
+        if (request instanceof AbortableHttpRequest) {
+            // throws if already aborted
+            ((AbortableHttpRequest) request).setReleaseTrigger(abort);
+        }
+        final HttpParams params = request.getParams();
+        conn.setConnectTimeout(HttpConnectionParams.getConnectionTimeout(params));
+        conn.setReadTimeout(HttpConnectionParams.getSoTimeout(params));
+        conn.setRequestMethod(request.getMethod());
+        conn.setUseCaches(false);
+        for (final Header h : request.getAllHeaders()) {
+            if (!isManagedHeader(h.getName())) {
+                conn.addRequestProperty(h.getName(), h.getValue());
+            }
+        }
+        final HttpEntity body = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        if (body != null) {
+            conn.setDoOutput(true);
+            setHeader(conn, body.getContentType());
+            setHeader(conn, body.getContentEncoding());
+            final long length = body.getContentLength();
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                conn.setFixedLengthStreamingMode((int) length);
+            } else {
+                conn.setChunkedStreamingMode(0);
+            }
+        }
+        try {
+            final RequestTimings timings = RequestTimings.current();
+            final long start = timings == null ? 0 : System.nanoTime();
+            try {
+                conn.connect();
+                if (timings != null) {
+                    // includes the dns lookup, and is near zero for a reused connection
+                    timings.connected(System.nanoTime() - start);
+                }
+            } catch (final SocketTimeoutException e) {
+                // the same exception as a read timeout, so tell them apart here
+                final ConnectTimeoutException timeout = new ConnectTimeoutException("Connect to " + request.getURI().getAuthority() + " timed out");
+                timeout.initCause(e);
+                throw timeout;
+            }
+            abort.check();
+            if (body != null) {
+                final OutputStream out = conn.getOutputStream();
+                try {
+                    body.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            }
+            return toResponse(conn);
+        } catch (final IOException e) {
+            conn.disconnect();
+            abort.check();
+            throw e;
+        } catch (final RuntimeException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private static HttpResponse toResponse(final HttpURLConnection conn) throws IOException {
+        final int status = conn.getResponseCode();
+        if (status < 0) {
+            throw new IOException("Invalid http response from " + conn.getURL());
+        }
+        final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, conn.getResponseMessage());
+        for (final Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            // the null key is the status line
+            if (header.getKey() != null) {
+                for (final String value : header.getValue()) {
+                    response.addHeader(header.getKey(), value);
+                }
+            }
+        }
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(openBody(conn, status));
+        entity.setContentLength(parseLength(response.getFirstHeader(HTTP.CONTENT_LEN)));
+        entity.setContentType(response.getFirstHeader(HTTP.CONTENT_TYPE));
+        entity.setContentEncoding(response.getFirstHeader(HTTP.CONTENT_ENCODING));
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static InputStream openBody(final HttpURLConnection conn, final int status) throws IOException {
+        if (status >= 400) {
+            final InputStream error = conn.getErrorStream();
+            return error == null ? new ByteArrayInputStream(new byte[0]) : error;
+        }
+        return conn.getInputStream();
+    }
+
+    private static long parseLength(final Header header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.getValue().trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void setHeader(final HttpURLConnection conn, final Header header) {
+        if (header != null) {
+            conn.setRequestProperty(header.getName(), header.getValue());
+        }
+    }
+
+    /**
+     * Headers the connection sets itself, from the body and url
+     */
+    private static boolean isManagedHeader(final String name) {
+        return HTTP.CONTENT_LEN.equalsIgnoreCase(name) || HTTP.TRANSFER_ENCODING.equalsIgnoreCase(name) || HTTP.TARGET_HOST.equalsIgnoreCase(name)
+                || HTTP.CONN_DIRECTIVE.equalsIgnoreCase(name);
+    }
+
+    /**
+     * Drops the connection when the request is aborted
+     */
+    private static class Abort implements ConnectionReleaseTrigger {
+        private final HttpURLConnection conn;
+        private volatile boolean aborted;
+
+        Abort(final HttpURLConnection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void abortConnection() {
+            aborted = true;
+            conn.disconnect();
+        }
+
+        @Override
+        public void releaseConnection() {
+            // released for reuse once the body is read to the end and closed
+        }
+
+        /**
+         * Fail if aborted while connecting, which disconnect may not interrupt
+         */
+        void check() throws IOException {
+            if (aborted) {
+                conn.disconnect();
+                throw new IOException("Request aborted");
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.bertvanbrakel.android.rest;
+
+/**
+ * UTF-8 percent encoding straight into a {@link StringBuilder}, without the
+ * charset lookup and intermediate strings of {@link java.net.URLEncoder}.
+ * Values which need no encoding, the common case, are appended as is.
+ */
+final class UrlEncoding {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Chars left alone in a query param, the same set as URLEncoder */
+    private static final boolean[] QUERY_SAFE = new boolean[128];
+    /** Chars left alone in a path segment, the RFC 3986 unreserved set */
+    private static final boolean[] PATH_SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            QUERY_SAFE[c] = PATH_SAFE[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            QUERY_SAFE[c] = PATH_SAFE[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            QUERY_SAFE[c] = PATH_SAFE[c] = true;
+        }
+        QUERY_SAFE['.'] = PATH_SAFE['.'] = true;
+        QUERY_SAFE['-'] = PATH_SAFE['-'] = true;
+        QUERY_SAFE['_'] = PATH_SAFE['_'] = true;
+        QUERY_SAFE['*'] = true;
+        PATH_SAFE['~'] = true;
+    }
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private UrlEncoding() {
+    }
+
+    /**
+     * An empty builder for this thread, reused between calls. Take the result
+     * with toString before the next call on the same thread
+     */
+    static StringBuilder buffer() {
+        final StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    /**
+     * Append a query param name or value, encoded exactly as
+     * <code>URLEncoder.encode(s, "UTF-8")</code> would, spaces as '+'
+     */
+    static StringBuilder appendQuery(final StringBuilder sb, final String s) {
+        return append(sb, s, QUERY_SAFE, true);
+    }
+
+    /**
+     * Append a path segment, encoding everything but the unreserved chars so
+     * a '/' in the value stays in the one segment
+     */
+    static StringBuilder appendPath(final StringBuilder sb, final String s) {
+        return append(sb, s, PATH_SAFE, false);
+    }
+
+    private static StringBuilder append(final StringBuilder sb, final String s, final boolean[] safe, final boolean spaceAsPlus) {
+        final int len = s.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 128 && safe[c]) {
+                continue;
+            }
+            // flush the run of safe chars in one go
+            sb.append(s, start, i);
+            if (c == ' ' && spaceAsPlus) {
+                sb.append('+');
+            } else if (c < 0x80) {
+                appendByte(sb, c);
+            } else if (c < 0x800) {
+                appendByte(sb, 0xC0 | (c >> 6));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                appendByte(sb, 0xF0 | (cp >> 18));
+                appendByte(sb, 0x80 | ((cp >> 12) & 0x3F));
+                appendByte(sb, 0x80 | ((cp >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (cp & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired, replaced as the UTF-8 encoder does
+                appendByte(sb, '?');
+            } else {
+                appendByte(sb, 0xE0 | (c >> 12));
+                appendByte(sb, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            }
+            start = i + 1;
+        }
+        return sb.append(s, start, len);
+    }
+
+    private static void appendByte(final StringBuilder sb, final int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
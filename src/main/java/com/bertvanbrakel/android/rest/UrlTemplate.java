@@ -0,0 +1,135 @@
+package com.bertvanbrakel.android.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+/**
+ * A url with <code>{name}</code> placeholders, parsed once then expanded any
+ * number of times, e.g.
+ * <code>UrlTemplate.compile("http://host/users/{id}/items?q={query}")</code>.
+ * Only the values are encoded on each expansion, the fixed parts are copied
+ * as is. Values in the path are encoded as a single path segment, values
+ * after the '?' as a query param.
+ * <p>
+ * Immutable and thread safe, keep one per endpoint.
+ */
+public final class UrlTemplate {
+
+    private final String template;
+    /** The fixed text around the placeholders, one more than the names */
+    private final String[] literals;
+    private final String[] names;
+    private final boolean[] inQuery;
+    private final int literalsLength;
+
+    private UrlTemplate(final String template, final List<String> literals, final List<String> names, final boolean[] inQuery) {
+        this.template = template;
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.names = names.toArray(new String[names.size()]);
+        this.inQuery = inQuery;
+        int len = 0;
+        for (final String l : literals) {
+            len += l.length();
+        }
+        this.literalsLength = len;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a placeholder isn't closed, or is empty
+     */
+    public static UrlTemplate compile(final String template) {
+        final List<String> literals = new ArrayList<String>();
+        final List<String> names = new ArrayList<String>();
+        final boolean[] inQuery = new boolean[template.length()];
+        boolean query = false;
+        int start = 0;
+        int open;
+        while ((open = template.indexOf('{', start)) >= 0) {
+            final int close = template.indexOf('}', open + 1);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed '{' at " + open + " in url template " + template);
+            }
+            if (close == open + 1) {
+                throw new IllegalArgumentException("Empty placeholder at " + open + " in url template " + template);
+            }
+            final String literal = template.substring(start, open);
+            query |= literal.indexOf('?') >= 0;
+            inQuery[names.size()] = query;
+            literals.add(literal);
+            names.add(template.substring(open + 1, close));
+            start = close + 1;
+        }
+        literals.add(template.substring(start));
+        return new UrlTemplate(template, literals, names, Arrays.copyOf(inQuery, names.size()));
+    }
+
+    /**
+     * @return the placeholder names, in the order they appear
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Fill in the placeholders in order, the values converted with toString
+     *
+     * @throws IllegalArgumentException if the number of values doesn't match
+     *             the placeholders, or a value is null
+     */
+    public String expand(final Object... values) {
+        if (values.length != names.length) {
+            throw new IllegalArgumentException(String.format("Expected %d values for url template %s, got %d", names.length, template, values.length));
+        }
+        final StringBuilder sb = UrlEncoding.buffer();
+        sb.ensureCapacity(literalsLength + names.length * 16);
+        for (int i = 0; i < names.length; i++) {
+            sb.append(literals[i]);
+            appendValue(sb, i, values[i]);
+        }
+        return sb.append(literals[names.length]).toString();
+    }
+
+    /**
+     * Fill in the placeholders by name
+     *
+     * @throws IllegalArgumentException if there is no value for a placeholder
+     */
+    public String expand(final Map<String, ?> values) {
+        final StringBuilder sb = UrlEncoding.buffer();
+        sb.ensureCapacity(literalsLength + names.length * 16);
+        for (int i = 0; i < names.length; i++) {
+            sb.append(literals[i]);
+            appendValue(sb, i, values.get(names[i]));
+        }
+        return sb.append(literals[names.length]).toString();
+    }
+
+    /**
+     * A request to the expanded url, to which further params and headers can
+     * be added
+     */
+    public RestRequest.Builder newRequest(final RequestMethod method, final Object... values) {
+        return RestRequest.newBuilder(method, expand(values));
+    }
+
+    private void appendValue(final StringBuilder sb, final int i, final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("No value for {" + names[i] + "} in url template " + template);
+        }
+        if (inQuery[i]) {
+            UrlEncoding.appendQuery(sb, value.toString());
+        } else {
+            UrlEncoding.appendPath(sb, value.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
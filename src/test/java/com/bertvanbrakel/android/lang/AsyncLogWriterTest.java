@@ -0,0 +1,149 @@
+package com.bertvanbrakel.android.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.bertvanbrakel.android.lang.AsyncLogWriter.OverflowPolicy;
+
+public class AsyncLogWriterTest {
+
+    @Test
+    public void test_writes_in_order() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsyncLogWriter writer = new AsyncLogWriter(new PrintStream(bytes, true), 4, OverflowPolicy.BLOCK, LogLevel.TRACE);
+        final int threads = 4;
+        final int perThread = 500;
+        final Thread[] loggers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final String name = "t" + i;
+            loggers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        writer.write(LogLevel.INFO, name, Integer.toString(j), null);
+                    }
+                }
+            };
+            loggers[i].start();
+        }
+        for (final Thread t : loggers) {
+            t.join();
+        }
+        writer.write(LogLevel.ERROR, "main", "failed", new IOException("boom"));
+        writer.close();
+
+        final String[] lines = bytes.toString().split(System.getProperty("line.separator"));
+        final int[] next = new int[threads];
+        for (int i = 0; i < threads * perThread; i++) {
+            final int t = lines[i].charAt(lines[i].indexOf("] t") + 3) - '0';
+            assertEquals("[INFO] t" + t + " " + next[t]++, lines[i]);
+        }
+        assertEquals("[ERROR] main failed", lines[threads * perThread]);
+        assertEquals("java.io.IOException: boom", lines[threads * perThread + 1]);
+        assertEquals(0, writer.getDropped());
+    }
+
+    @Test
+    public void test_nothing_lost_when_closed_while_logging() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsyncLogWriter writer = new AsyncLogWriter(new PrintStream(bytes, true), 64, OverflowPolicy.BLOCK, LogLevel.TRACE);
+        final int threads = 4;
+        final int perThread = 2000;
+        final CountDownLatch started = new CountDownLatch(threads);
+        final Thread[] loggers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            loggers[i] = new Thread() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < perThread; j++) {
+                        writer.write(LogLevel.INFO, "log", "event", null);
+                    }
+                }
+            };
+            loggers[i].start();
+        }
+        started.await();
+        writer.close();
+        for (final Thread t : loggers) {
+            t.join();
+        }
+        assertEquals(threads * perThread, bytes.toString().split(System.getProperty("line.separator")).length);
+    }
+
+    @Test
+    public void test_discard_below_level() throws Exception {
+        final BlockingStream stream = new BlockingStream();
+        final AsyncLogWriter writer = new AsyncLogWriter(new PrintStream(stream, true), 2, OverflowPolicy.DISCARD_BELOW_LEVEL, LogLevel.WARN);
+        writer.write(LogLevel.INFO, "log", "first", null);
+        assertTrue(stream.entered.await(5, TimeUnit.SECONDS));
+        // the writer is stuck printing, so fill the buffer
+        writer.write(LogLevel.INFO, "log", "second", null);
+        writer.write(LogLevel.INFO, "log", "third", null);
+        writer.write(LogLevel.DEBUG, "log", "dropped", null);
+        assertEquals(1, writer.getDropped());
+
+        final Thread release = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    // release anyway
+                }
+                stream.proceed.countDown();
+            }
+        };
+        release.start();
+        // waits for space
+        writer.write(LogLevel.WARN, "log", "kept", null);
+        writer.close();
+
+        final String out = stream.toString();
+        assertTrue(out, out.contains("[INFO] log third"));
+        assertTrue(out, out.contains("[WARN] log kept"));
+        assertTrue(out, out.contains("Dropped 1 log events"));
+        assertTrue(out, !out.contains("dropped"));
+    }
+
+    @Test
+    public void test_drop() throws Exception {
+        final BlockingStream stream = new BlockingStream();
+        final AsyncLogWriter writer = new AsyncLogWriter(new PrintStream(stream, true), 1, OverflowPolicy.DROP, LogLevel.WARN);
+        writer.write(LogLevel.INFO, "log", "first", null);
+        assertTrue(stream.entered.await(5, TimeUnit.SECONDS));
+        writer.write(LogLevel.INFO, "log", "second", null);
+        writer.write(LogLevel.INFO, "log", "third", null);
+        writer.write(LogLevel.FATAL, "log", "fourth", null);
+        assertEquals(1, writer.getDropped());
+        stream.proceed.countDown();
+        writer.close();
+    }
+
+    /**
+     * Holds up the first write until released
+     */
+    private static class BlockingStream extends ByteArrayOutputStream {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            entered.countDown();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+    }
+}
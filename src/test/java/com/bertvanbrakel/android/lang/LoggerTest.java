@@ -1,6 +1,16 @@
 package com.bertvanbrakel.android.lang;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.After;
 
 import org.junit.Test;
 
@@ -8,6 +18,11 @@ import com.bertvanbrakel.android.lang.Logger;
 
 public class LoggerTest {
 
+    @After
+    public void tearDown() {
+        LogLevels.reset();
+    }
+
     /**
      * Ensure log names don't get too long
      */
@@ -22,4 +37,83 @@ public class LoggerTest {
 
         assertEquals( "LongNameWithNotDotsInIt", new Logger("SomeReallyLongNameWithNotDotsInIt").getLogName());
     }
+
+    @Test
+    public void test_message_format() {
+        assertEquals("a 1 b", MessageFormatter.format("a {} b", 1));
+        assertEquals("1 and null", MessageFormatter.format("{} and {}", "1", null));
+        assertEquals("1 2 {}", MessageFormatter.format("{} {} {}", new Object[] { 1, 2 }));
+        assertEquals("[x, y] only", MessageFormatter.format("{} only", new String[] { "x", "y" }, "ignored"));
+        assertEquals("no placeholders", MessageFormatter.format("no placeholders", 1));
+    }
+
+    @Test
+    public void test_message_format_reentrant() {
+        final Object nested = new Object() {
+            @Override
+            public String toString() {
+                return MessageFormatter.format("inner {}", "x");
+            }
+        };
+        assertEquals("inner xinner x suffix", MessageFormatter.format("{}{} suffix", nested, nested));
+        assertEquals("a 1 b", MessageFormatter.format("a {} b", 1));
+    }
+
+    @Test
+    public void test_trailing_throwable() {
+        final IOException e = new IOException();
+        assertSame(e, MessageFormatter.trailingThrowable("failed {}", "x", e));
+        assertNull(MessageFormatter.trailingThrowable("failed {} {}", "x", e));
+        assertSame(e, MessageFormatter.trailingThrowable("{} {}", new Object[] { 1, 2, e }));
+        assertNull(MessageFormatter.trailingThrowable("{}", new Object[] { 1 }));
+    }
+
+    @Test
+    public void test_levels_inherited() {
+        final Logger log = new Logger("athena.rest.Client");
+        assertEquals(LogLevel.DEBUG, log.getLevel());
+        assertTrue(log.isDebugEnabled());
+
+        LogLevels.setRootLevel(LogLevel.WARN);
+        assertFalse(log.isInfoEnabled());
+        LogLevels.setLevel("athena", LogLevel.INFO);
+        assertTrue(log.isInfoEnabled());
+        assertFalse(log.isDebugEnabled());
+        LogLevels.setLevel("athena.rest.Client", LogLevel.TRACE);
+        assertTrue(log.isTraceEnabled());
+        assertEquals(LogLevel.INFO, new Logger("athena.Other").getLevel());
+        assertEquals(LogLevel.WARN, new Logger("athenaish").getLevel());
+
+        LogLevels.setLevel("athena.rest.Client", null);
+        assertEquals(LogLevel.INFO, log.getLevel());
+    }
+
+    @Test
+    public void test_levels_from_properties() {
+        final Properties props = new Properties();
+        props.setProperty("log4j.rootLogger", "error, stdout");
+        props.setProperty("log4j.logger.athena", "OFF");
+        props.setProperty("log4j.appender.stdout", "org.apache.log4j.ConsoleAppender");
+        LogLevels.configure(props);
+        assertEquals(LogLevel.ERROR, new Logger("other").getLevel());
+        assertFalse(new Logger("athena.Foo").isFatalEnabled());
+
+        props.setProperty("log4j.logger.athena", "LOUD");
+        try {
+            LogLevels.configure(props);
+            fail("Expected the level to be rejected");
+        } catch (final IllegalArgumentException e) {
+            // expected, and nothing changed
+        }
+        assertEquals(LogLevel.OFF, LogLevels.getLevel("athena.Foo"));
+    }
+
+    @Test
+    public void test_get_shares_instances() {
+        final Logger log = Logger.get(LoggerTest.class);
+        assertSame(log, Logger.get(LoggerTest.class));
+        assertSame(log, Logger.get("athena.LoggerTest"));
+        assertEquals(new Logger(LoggerTest.class).getLogName(), log.getLogName());
+        assertEquals("somepackage.SomeClass", Logger.get("com.acme.someproject.somepackage.SomeClass").getLogName());
+    }
 }
@@ -0,0 +1,110 @@
+package com.bertvanbrakel.android.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RingFileLogAdapterTest {
+
+    private File file;
+    private RingFileLogAdapter adapter;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("ring", ".log");
+        adapter = new RingFileLogAdapter(file, 64 * 1024, LogLevel.TRACE);
+        Logger.setAdapter(adapter);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Logger.setAdapter(null);
+        adapter.close();
+        file.delete();
+        RingFileLogAdapter.dictionaryFile(file).delete();
+    }
+
+    @Test
+    public void test_round_trip() throws Exception {
+        final Logger log = Logger.get("ring.Test");
+        assertTrue(log.isTraceEnabled());
+        log.trace("plain {}");
+        log.debug("request {} took {}ms", "GET /users", 12L);
+        log.info("{} {} {} {}", 1, 2.5, true, null);
+        log.warn("failed {}", "badly", new IOException("boom"));
+        log.error("café €{}", '!');
+
+        final String[] lines = decode(5).split(System.getProperty("line.separator"));
+        assertTrue(lines[0], lines[0].endsWith(" [TRACE] ring.Test plain {}"));
+        assertTrue(lines[1], lines[1].endsWith(" [DEBUG] ring.Test request GET /users took 12ms"));
+        assertTrue(lines[2], lines[2].endsWith(" [INFO] ring.Test 1 2.5 true null"));
+        assertTrue(lines[3], lines[3].endsWith(" [WARN] ring.Test failed badly"));
+        assertEquals("java.io.IOException: boom", lines[4]);
+        assertTrue(lines[lines.length - 1], lines[lines.length - 1].endsWith(" [ERROR] ring.Test café €!"));
+    }
+
+    @Test
+    public void test_long_args_truncated_to_fit() throws Exception {
+        final char[] chars = new char[2100];
+        Arrays.fill(chars, 'x');
+        final String arg = new String(chars);
+        final Logger log = Logger.get("ring.Long");
+        log.info("{} {} {} {} {}", arg, arg, arg, arg, arg, new IOException("boom"));
+        log.info("after");
+
+        final String[] lines = decode(2).split(System.getProperty("line.separator"));
+        assertTrue(lines[0].length() > 8000);
+        assertTrue(lines[0], lines[0].endsWith(" null"));
+        assertTrue(lines[lines.length - 1], lines[lines.length - 1].endsWith(" [INFO] ring.Long after"));
+    }
+
+    @Test
+    public void test_arg_which_logs() throws Exception {
+        final Logger log = Logger.get("ring.Nested");
+        final Object nested = new Object() {
+            @Override
+            public String toString() {
+                log.trace("inner {}", "x");
+                return "arg";
+            }
+        };
+        log.debug("outer {} {}", nested, 7);
+
+        final String[] lines = decode(2).split(System.getProperty("line.separator"));
+        assertTrue(lines[0], lines[0].endsWith(" [TRACE] ring.Nested inner x"));
+        assertTrue(lines[1], lines[1].endsWith(" [DEBUG] ring.Nested outer arg 7"));
+    }
+
+    @Test
+    public void test_wraps_and_reopens() throws Exception {
+        final Logger log = Logger.get("ring.Wrap");
+        for (int i = 0; i < 5000; i++) {
+            log.info("event {} of {}", i, "many");
+        }
+        adapter.close();
+        adapter = new RingFileLogAdapter(file, 64 * 1024, LogLevel.TRACE);
+        Logger.setAdapter(adapter);
+        log.info("event {} of {}", 5000, "many");
+
+        final StringBuilder out = new StringBuilder();
+        final int count = RingFileLogDecoder.decode(file, out);
+        assertTrue("only the newest fit, got " + count, count > 100 && count < 5000);
+        final String[] lines = out.toString().split(System.getProperty("line.separator"));
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(lines[i], lines[i].endsWith("event " + (5001 - lines.length + i) + " of many"));
+        }
+    }
+
+    private String decode(final int expected) throws IOException {
+        final StringBuilder out = new StringBuilder();
+        assertEquals(expected, RingFileLogDecoder.decode(file, out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package com.bertvanbrakel.android.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThrottledLoggerTest {
+
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Throwable> throwables = Collections.synchronizedList(new ArrayList<Throwable>());
+    private final Logger log = Logger.get("throttle.Test");
+
+    @Before
+    public void setUp() {
+        Logger.setAdapter(new LogAdapter() {
+            @Override
+            public void log(final LogLevel level, final String logName, final String msg, final Throwable t) {
+                messages.add(msg);
+                throwables.add(t);
+            }
+
+            @Override
+            public LogLevel getDefaultLevel(final String logName) {
+                return LogLevel.DEBUG;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setAdapter(null);
+    }
+
+    @Test
+    public void test_suppressed_within_window() {
+        final ThrottledLogger throttled = log.throttled(2, 1, TimeUnit.HOURS);
+        final IOException e = new IOException("down");
+        for (int i = 0; i < 5; i++) {
+            throttled.warn("Backend {} failed", "api", e);
+        }
+        throttled.warn("Something else");
+        assertEquals(3, messages.size());
+        assertEquals("Backend api failed", messages.get(0));
+        assertNotNull(throwables.get(0));
+        // only the first with its stack trace
+        assertEquals("Backend api failed: java.io.IOException: down", messages.get(1));
+        assertNull(throwables.get(1));
+        assertEquals("Something else", messages.get(2));
+
+        throttled.logSuppressed();
+        assertEquals("3 similar messages suppressed: Backend {} failed", messages.get(3));
+    }
+
+    @Test
+    public void test_count_reported_in_next_window() throws Exception {
+        final ThrottledLogger throttled = log.throttled(1, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 3; i++) {
+            throttled.error("Failed", new IOException());
+        }
+        Thread.sleep(80);
+        throttled.error("Failed", new IOException());
+        assertEquals(2, messages.size());
+        assertEquals("Failed (2 similar messages suppressed)", messages.get(1));
+        assertNotNull(throwables.get(1));
+    }
+
+    @Test
+    public void test_count_reported_when_window_ends() throws Exception {
+        final ThrottledLogger throttled = log.throttled(1, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 3; i++) {
+            throttled.warn("Retrying {}", i);
+        }
+        Thread.sleep(80);
+        throttled.warn("Something else");
+        assertEquals("[Retrying 0, Something else, 2 similar messages suppressed: Retrying {}]", messages.toString());
+        // reported once only
+        Thread.sleep(80);
+        throttled.warn("Something else");
+        assertEquals(4, messages.size());
+    }
+
+    @Test
+    public void test_count_reported_at_suppressed_level() {
+        LogLevels.setLevel(log.getLogName(), LogLevel.WARN);
+        try {
+            final ThrottledLogger throttled = log.throttled(1, 1, TimeUnit.HOURS);
+            throttled.error("Backend down");
+            throttled.error("Backend down");
+            throttled.logSuppressed();
+            assertEquals("[Backend down, 1 similar messages suppressed: Backend down]", messages.toString());
+        } finally {
+            LogLevels.setLevel(log.getLogName(), null);
+        }
+    }
+
+    @Test
+    public void test_sampled() {
+        final ThrottledLogger sampled = log.throttled(Integer.MAX_VALUE, 1, TimeUnit.HOURS).sampled(0.5);
+        for (int i = 0; i < 1000; i++) {
+            sampled.info("Event {}", i);
+        }
+        assertTrue("logged " + messages.size(), messages.size() > 350 && messages.size() < 650);
+        // below the level, nothing
+        sampled.trace("Not logged");
+        assertTrue(!messages.contains("Not logged"));
+    }
+}
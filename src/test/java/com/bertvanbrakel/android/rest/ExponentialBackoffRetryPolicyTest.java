@@ -0,0 +1,154 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class ExponentialBackoffRetryPolicyTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile int failures;
+    private volatile long delayMs;
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                if (delayMs > 0) {
+                    try {
+                        Thread.sleep(delayMs);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (calls.incrementAndGet() <= failures) {
+                    resp.setHeader("Retry-After", "0");
+                    resp.sendError(503);
+                    return;
+                }
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.getWriter().print("ok");
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+        client.setRetryPolicy(new ExponentialBackoffRetryPolicy(3, 1, 10));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_get_retried_until_success() throws Exception {
+        failures = 2;
+        assertEquals("ok", client.execute(client.newRequest(RequestMethod.GET).build()).getBody());
+        assertEquals(3, calls.get());
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_gives_up_after_max_attempts() throws Exception {
+        failures = 5;
+        assertEquals(503, client.execute(client.newRequest(RequestMethod.GET).build()).getStatusCode());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void test_post_not_retried() throws Exception {
+        failures = 1;
+        assertEquals(503, client.execute(client.newRequest(RequestMethod.POST).build()).getStatusCode());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void test_backoff_bounded() {
+        final ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(10, 100, 1000);
+        for (int attempt = 1; attempt < 10; attempt++) {
+            final long delay = policy.backoff(attempt);
+            assertTrue(delay >= 0 && delay <= Math.min(1000, 100 << (attempt - 1)));
+        }
+    }
+
+    @Test
+    public void test_circuit_opens_and_fails_fast() throws Exception {
+        failures = Integer.MAX_VALUE;
+        client.setRetryPolicy(RetryPolicy.NONE);
+        client.setCircuitBreaker(new CircuitBreaker(2, 60000));
+        final RestRequest request = client.newRequest(RequestMethod.GET).build();
+
+        client.execute(request);
+        client.execute(request);
+        try {
+            client.execute(request);
+            fail("Expected circuit to be open");
+        } catch (final CircuitOpenException e) {
+            assertTrue(e.getRetryAfterMillis() > 0);
+        }
+        assertEquals(2, calls.get());
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker().getState(host(request)));
+    }
+
+    @Test
+    public void test_half_open_trial_closes_circuit() throws Exception {
+        failures = 1;
+        client.setRetryPolicy(RetryPolicy.NONE);
+        client.setCircuitBreaker(new CircuitBreaker(1, 0));
+        final RestRequest request = client.newRequest(RequestMethod.GET).build();
+
+        assertEquals(503, client.execute(request).getStatusCode());
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker().getState(host(request)));
+        assertEquals("ok", client.execute(request).getBody());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState(host(request)));
+    }
+
+    @Test
+    public void test_deadline_neither_opens_nor_closes_circuit() throws Exception {
+        failures = 1;
+        client.setRetryPolicy(RetryPolicy.NONE);
+        client.setCircuitBreaker(new CircuitBreaker(1, 0));
+        final RestRequest request = client.newRequest(RequestMethod.GET).build();
+
+        assertEquals(503, client.execute(request).getStatusCode());
+        delayMs = 1000;
+        try {
+            client.execute(client.newRequest(RequestMethod.GET).timeouts(RestTimeouts.newBuilder().deadline(100, TimeUnit.MILLISECONDS).build()).build());
+            fail("Expected the deadline to pass");
+        } catch (final RestDeadlineException e) {
+            // expected
+        }
+        // the trial was given back, not counted
+        assertEquals(CircuitBreaker.State.HALF_OPEN, client.getCircuitBreaker().getState(host(request)));
+        delayMs = 0;
+        assertEquals("ok", client.execute(request).getBody());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState(host(request)));
+    }
+
+    private String host(final RestRequest request) throws RestClientException {
+        return request.toHttpRequest(client.getGson()).getURI().getAuthority();
+    }
+}
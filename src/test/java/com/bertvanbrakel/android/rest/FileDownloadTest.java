@@ -0,0 +1,154 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class FileDownloadTest {
+
+    private static final int SIZE = 3 * 1024 * 1024 + 17;
+    private static final byte[] CONTENT = new byte[SIZE];
+    static {
+        for (int i = 0; i < SIZE; i++) {
+            CONTENT[i] = (byte) (i % 251);
+        }
+    }
+
+    private final List<String> ranges = new CopyOnWriteArrayList<String>();
+    private volatile int breakAfter = -1;
+    private volatile int errorStatus;
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                final String range = req.getHeader("Range");
+                ranges.add(String.valueOf(range));
+                if (errorStatus != 0) {
+                    resp.sendError(errorStatus);
+                    return;
+                }
+                int from = 0;
+                int to = SIZE - 1;
+                resp.setHeader("ETag", "\"v1\"");
+                final String ifRange = req.getHeader("If-Range");
+                if (range != null && (ifRange == null || "\"v1\"".equals(ifRange))) {
+                    final String spec = range.substring("bytes=".length());
+                    from = Integer.parseInt(spec.substring(0, spec.indexOf('-')));
+                    if (!spec.endsWith("-")) {
+                        to = Integer.parseInt(spec.substring(spec.indexOf('-') + 1));
+                    }
+                    resp.setStatus(206);
+                    resp.setHeader("Content-Range", "bytes " + from + "-" + to + "/" + SIZE);
+                }
+                resp.setContentType("application/octet-stream");
+                resp.setContentLength(to - from + 1);
+                final OutputStream out = resp.getOutputStream();
+                if (breakAfter >= 0) {
+                    out.write(CONTENT, from, breakAfter);
+                    out.flush();
+                    breakAfter = -1;
+                    throw new IOException("Simulated connection failure");
+                }
+                out.write(CONTENT, from, to - from + 1);
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+        target = File.createTempFile("FileDownloadTest", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+        FileUtils.deleteQuietly(target);
+        FileUtils.deleteQuietly(new File(target.getPath() + FileDownload.PROGRESS_SUFFIX));
+    }
+
+    @Test
+    public void test_single_download() throws Exception {
+        assertEquals(SIZE, client.newDownload(client.newRequest(RequestMethod.GET).build(), target).execute());
+        assertArrayEquals(CONTENT, FileUtils.readFileToByteArray(target));
+        assertEquals("[bytes=0-]", ranges.toString());
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_parallel_segments() throws Exception {
+        client.newDownload(client.newRequest(RequestMethod.GET).build(), target).segments(3).execute();
+
+        assertArrayEquals(CONTENT, FileUtils.readFileToByteArray(target));
+        assertEquals(3, ranges.size());
+        assertTrue(ranges.contains("bytes=1048581-2097161"));
+        assertFalse(new File(target.getPath() + FileDownload.PROGRESS_SUFFIX).exists());
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_resumes_after_failure() throws Exception {
+        breakAfter = 1024 * 1024;
+        final FileDownload download = client.newDownload(client.newRequest(RequestMethod.GET).build(), target);
+        try {
+            download.execute();
+            fail("Expected the download to fail");
+        } catch (final RestClientException e) {
+            // expected
+        }
+        assertTrue(new File(target.getPath() + FileDownload.PROGRESS_SUFFIX).exists());
+
+        ranges.clear();
+        assertEquals(SIZE, client.newDownload(client.newRequest(RequestMethod.GET).build(), target).execute());
+        assertArrayEquals(CONTENT, FileUtils.readFileToByteArray(target));
+        assertEquals(1, ranges.size());
+        assertFalse("bytes=0-".equals(ranges.get(0)));
+    }
+
+    @Test
+    public void test_error_leaves_file_alone() throws Exception {
+        FileUtils.writeStringToFile(target, "previous");
+        errorStatus = 500;
+        try {
+            client.newDownload(client.newRequest(RequestMethod.GET).build(), target).execute();
+            fail("Expected the download to fail");
+        } catch (final RestClientException e) {
+            // expected
+        }
+        assertEquals("previous", FileUtils.readFileToString(target));
+    }
+
+    @Test
+    public void test_parse_content_range() {
+        assertArrayEquals(new long[] { 0, 99, 1000 }, FileDownload.parseContentRange("bytes 0-99/1000"));
+        assertArrayEquals(new long[] { 5, 9, -1 }, FileDownload.parseContentRange("bytes 5-9/*"));
+        assertEquals(null, FileDownload.parseContentRange("items 0-1/2"));
+    }
+}
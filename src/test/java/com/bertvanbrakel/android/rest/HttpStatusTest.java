@@ -0,0 +1,52 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.HttpStatus.StatusClass;
+
+public class HttpStatusTest {
+
+    @Test
+    public void test_for_code() {
+        for (final HttpStatus s : HttpStatus.values()) {
+            if (s != HttpStatus.UNKNOWN && s != HttpStatus.MOVED_TEMPORARILY) {
+                assertEquals(s, HttpStatus.forCode(s.getCode()));
+            }
+        }
+        assertEquals(HttpStatus.FOUND, HttpStatus.forCode(302));
+        assertEquals(HttpStatus.UNKNOWN, HttpStatus.forCode(299));
+        assertEquals(HttpStatus.UNKNOWN, HttpStatus.forCode(-1));
+        assertEquals(HttpStatus.UNKNOWN, HttpStatus.forCode(600));
+        assertEquals(HttpStatus.UNKNOWN, HttpStatus.forCode(Integer.MAX_VALUE));
+        assertNull(HttpStatus.find(299));
+    }
+
+    @Test
+    public void test_status_class() {
+        assertEquals(StatusClass.INFORMATIONAL, StatusClass.of(100));
+        assertEquals(StatusClass.SUCCESS, StatusClass.of(299));
+        assertEquals(StatusClass.REDIRECTION, HttpStatus.NOT_MODIFIED.getStatusClass());
+        assertEquals(StatusClass.CLIENT_ERROR, StatusClass.of(451));
+        assertEquals(StatusClass.SERVER_ERROR, StatusClass.of(599));
+        assertEquals(StatusClass.UNKNOWN, StatusClass.of(99));
+        assertEquals(StatusClass.UNKNOWN, StatusClass.of(600));
+        assertEquals(StatusClass.UNKNOWN, HttpStatus.UNKNOWN.getStatusClass());
+        assertTrue(HttpStatus.isServerError(599));
+        assertFalse(HttpStatus.isServerError(600));
+    }
+
+    @Test
+    public void test_retryable_and_cacheable() {
+        assertTrue(HttpStatus.SERVICE_UNAVAILABLE.isRetryable());
+        assertFalse(HttpStatus.INTERNAL_SERVER_ERROR.isRetryable());
+        assertTrue(HttpStatus.OK.isCacheable());
+        assertTrue(HttpStatus.GONE.isCacheable());
+        assertFalse(HttpStatus.CREATED.isCacheable());
+        assertFalse(HttpStatus.UNKNOWN.isCacheable());
+    }
+}
@@ -0,0 +1,124 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+public class RequestBatcherTest {
+
+    private final List<String> batches = new CopyOnWriteArrayList<String>();
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/batch", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                final String[] ids = new Gson().fromJson(req.getReader(), String[].class);
+                batches.add(ids.length + "");
+                resp.setContentType("application/json; charset=UTF-8");
+                final StringBuilder sb = new StringBuilder("{");
+                for (final String id : ids) {
+                    if (!"missing".equals(id)) {
+                        sb.append(sb.length() > 1 ? "," : "").append('"').append(id).append("\":{\"id\":").append(id).append('}');
+                    }
+                }
+                resp.getWriter().print(sb.append('}'));
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_requests_in_window_sent_as_one_batch() throws Exception {
+        final RequestBatcher<String, RestClientTest.Item> batcher = newBatcher(100, 200);
+        final List<Future<RestClientTest.Item>> futures = new ArrayList<Future<RestClientTest.Item>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(batcher.submit(Integer.toString(i % 5)));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 5, futures.get(i).get().id);
+        }
+        // duplicates only sent once
+        assertEquals("[5]", batches.toString());
+        batcher.shutdown();
+    }
+
+    @Test
+    public void test_full_batch_sent_straight_away() throws Exception {
+        final RequestBatcher<String, RestClientTest.Item> batcher = newBatcher(3, 60000);
+        final long start = System.currentTimeMillis();
+        batcher.submit("0");
+        batcher.submit("1");
+        final Future<RestClientTest.Item> last = batcher.submit("2");
+        assertEquals(2, last.get().id);
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        batcher.shutdown();
+    }
+
+    @Test
+    public void test_missing_result_fails() throws Exception {
+        final RequestBatcher<String, RestClientTest.Item> batcher = newBatcher(2, 60000);
+        final Future<RestClientTest.Item> found = batcher.submit("1");
+        final Future<RestClientTest.Item> missing = batcher.submit("missing");
+        assertEquals(1, found.get().id);
+        try {
+            missing.get();
+            fail("Expected no result");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RestClientException);
+        }
+        batcher.shutdown();
+    }
+
+    @Test
+    public void test_submit_after_shutdown_fails() throws Exception {
+        final RequestBatcher<String, RestClientTest.Item> batcher = newBatcher(100, 200);
+        batcher.shutdown();
+        try {
+            batcher.get("1");
+            fail("Expected the shut down batcher to refuse");
+        } catch (final RestClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("shut down"));
+        }
+    }
+
+    private RequestBatcher<String, RestClientTest.Item> newBatcher(final int maxBatchSize, final long windowMs) {
+        final Type type = new TypeToken<Map<String, RestClientTest.Item>>() {}.getType();
+        final RequestBatcher.BatchCall<String, RestClientTest.Item> call = RequestBatcher.newJsonBatchCall(client, server.getBaseUrl() + "batch", type);
+        return new RequestBatcher<String, RestClientTest.Item>(call, maxBatchSize, windowMs, new RestExecutor());
+    }
+}
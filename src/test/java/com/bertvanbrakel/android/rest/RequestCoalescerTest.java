@@ -0,0 +1,192 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class RequestCoalescerTest {
+
+    private static final int THREADS = 8;
+
+    private final AtomicInteger served = new AtomicInteger();
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+    private ExecutorService threads;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                served.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resp.setContentType("application/json; charset=UTF-8");
+                resp.getWriter().print("{\"id\":" + req.getParameter("id") + ",\"name\":\"item\"}");
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+        client.setRequestCoalescer(new RequestCoalescer());
+        threads = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        threads.shutdownNow();
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_identical_gets_share_one_request() throws Exception {
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("id", 1).build();
+        final List<RestResponse> responses = runConcurrently(new Callable<RestResponse>() {
+            @Override
+            public RestResponse call() throws Exception {
+                return client.execute(request);
+            }
+        });
+
+        assertEquals(1, served.get());
+        for (final RestResponse r : responses) {
+            assertSame(responses.get(0), r);
+        }
+        assertEquals(THREADS - 1, client.getRequestCoalescer().getCoalesced());
+        assertEquals(0, client.getRequestCoalescer().getInFlight());
+    }
+
+    @Test
+    public void test_json_results_shared() throws Exception {
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("id", 2).build();
+        final List<RestClientTest.Item> items = runConcurrently(new Callable<RestClientTest.Item>() {
+            @Override
+            public RestClientTest.Item call() throws Exception {
+                return client.executeJson(request, RestClientTest.Item.class);
+            }
+        });
+
+        assertEquals(1, served.get());
+        assertEquals(2, items.get(0).id);
+        assertSame(items.get(0), items.get(THREADS - 1));
+    }
+
+    @Test
+    public void test_different_params_not_coalesced() throws Exception {
+        final AtomicInteger id = new AtomicInteger();
+        runConcurrently(new Callable<RestResponse>() {
+            @Override
+            public RestResponse call() throws Exception {
+                return client.execute(client.newRequest(RequestMethod.GET).param("id", id.incrementAndGet()).build());
+            }
+        });
+        assertEquals(THREADS, served.get());
+    }
+
+    @Test
+    public void test_follower_runs_own_request_when_leader_cancelled() throws Exception {
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("id", 3).build();
+        final RestCall leader = client.newCall(request);
+        final Future<RestResponse> led = threads.submit(new Callable<RestResponse>() {
+            @Override
+            public RestResponse call() throws Exception {
+                return leader.execute();
+            }
+        });
+        awaitServed(1);
+        final Future<RestResponse> followed = threads.submit(new Callable<RestResponse>() {
+            @Override
+            public RestResponse call() throws Exception {
+                return client.execute(request);
+            }
+        });
+        awaitCoalesced(1);
+        leader.cancel();
+
+        try {
+            led.get();
+            fail("Expected the leader to be cancelled");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RestCancelledException);
+        }
+        assertEquals(200, followed.get().getStatusCode());
+        assertEquals(2, served.get());
+    }
+
+    @Test
+    public void test_follower_deadline_ends_wait() throws Exception {
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("id", 4).build();
+        final Future<RestResponse> led = threads.submit(new Callable<RestResponse>() {
+            @Override
+            public RestResponse call() throws Exception {
+                return client.execute(request);
+            }
+        });
+        awaitServed(1);
+        final long start = System.currentTimeMillis();
+        try {
+            client.execute(request.toBuilder().timeouts(RestTimeouts.newBuilder().deadline(50, TimeUnit.MILLISECONDS).build()).build());
+            fail("Expected the follower's deadline to pass");
+        } catch (final RestDeadlineException e) {
+            assertTrue(System.currentTimeMillis() - start < 250);
+        }
+        assertEquals(1, client.getRequestCoalescer().getCoalesced());
+        assertEquals(200, led.get().getStatusCode());
+    }
+
+    private void awaitServed(final int count) throws InterruptedException {
+        for (int i = 0; i < 500 && served.get() < count; i++) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, served.get());
+    }
+
+    private void awaitCoalesced(final int count) throws InterruptedException {
+        for (int i = 0; i < 500 && client.getRequestCoalescer().getCoalesced() < count; i++) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, client.getRequestCoalescer().getCoalesced());
+    }
+
+    private <T> List<T> runConcurrently(final Callable<T> task) throws Exception {
+        final List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(threads.submit(task));
+        }
+        final List<T> results = new ArrayList<T>();
+        for (final Future<T> f : futures) {
+            results.add(f.get());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,180 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class ResponseCacheTest {
+
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private File diskDir;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                final String etag = "\"v1\"";
+                resp.setHeader("Cache-Control", req.getParameter("cc"));
+                resp.setHeader("ETag", etag);
+                if (etag.equals(req.getHeader("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    resp.setStatus(304);
+                    return;
+                }
+                served.incrementAndGet();
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.getWriter().print("body for " + req.getPathInfo());
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        diskDir = new File(System.getProperty("java.io.tmpdir"), "ResponseCacheTest-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+        FileUtils.deleteQuietly(diskDir);
+    }
+
+    @Test
+    public void test_fresh_response_served_from_cache() throws Exception {
+        final RestClient client = newClient(new ResponseCache(1024 * 1024));
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("cc", "max-age=60").build();
+
+        assertEquals("body for /", client.execute(request).getBody());
+        assertEquals("body for /", client.execute(request).getBody());
+
+        assertEquals(1, served.get());
+        assertEquals(1, client.getResponseCache().getStats().getHits());
+        assertEquals(1, client.getResponseCache().getStats().getMisses());
+    }
+
+    @Test
+    public void test_stale_response_revalidated_with_etag() throws Exception {
+        final RestClient client = newClient(new ResponseCache(1024 * 1024));
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("cc", "no-cache").build();
+
+        assertEquals("body for /", client.execute(request).getBody());
+        final RestResponse revalidated = client.execute(request);
+
+        assertEquals(200, revalidated.getStatusCode());
+        assertEquals("body for /", revalidated.getBody());
+        assertEquals(1, served.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, client.getResponseCache().getStats().getRevalidations());
+        assertEquals(1, client.getResponseCache().getStats().getNotModified());
+    }
+
+    @Test
+    public void test_keyed_by_request_headers() throws Exception {
+        final RestClient client = newClient(new ResponseCache(1024 * 1024));
+
+        client.execute(client.newRequest(RequestMethod.GET).param("cc", "max-age=60").header("Authorization", "Bearer a").build());
+        client.execute(client.newRequest(RequestMethod.GET).param("cc", "max-age=60").header("Authorization", "Bearer b").build());
+
+        assertEquals(2, served.get());
+        assertEquals(0, client.getResponseCache().getStats().getHits());
+    }
+
+    @Test
+    public void test_no_store_not_cached() throws Exception {
+        final RestClient client = newClient(new ResponseCache(1024 * 1024));
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("cc", "no-store").build();
+
+        client.execute(request);
+        client.execute(request);
+
+        assertEquals(2, served.get());
+        assertEquals(0, client.getResponseCache().getStats().getMemoryEntries());
+    }
+
+    @Test
+    public void test_lru_memory_eviction_falls_back_to_disk() throws Exception {
+        // only room for one entry in memory
+        final ResponseCache cache = new ResponseCache(400, diskDir, 1024 * 1024);
+        final RestClient first = newClient(cache, "a");
+        final RestClient second = newClient(cache, "b");
+        final RestRequest a = first.newRequest(RequestMethod.GET).param("cc", "max-age=60").build();
+        final RestRequest b = second.newRequest(RequestMethod.GET).param("cc", "max-age=60").build();
+
+        first.execute(a);
+        second.execute(b);
+        assertEquals(1, cache.getStats().getMemoryEntries());
+
+        // a was evicted from memory, but is still on disk
+        assertEquals("body for /a", first.execute(a).getBody());
+        assertEquals(2, served.get());
+
+        // and survives a new cache instance
+        final RestClient restarted = newClient(new ResponseCache(400, diskDir, 1024 * 1024), "b");
+        assertEquals("body for /b", restarted.execute(b).getBody());
+        assertEquals(2, served.get());
+    }
+
+    @Test
+    public void test_disk_eviction_least_recently_read() throws Exception {
+        // nothing fits in memory, so every hit is a disk read
+        final ResponseCache probe = new ResponseCache(0, diskDir, 1024 * 1024);
+        newClient(probe, "a").execute(newClient(probe, "a").newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        final long entrySize = diskDir.listFiles()[0].length();
+        probe.clear();
+
+        final ResponseCache cache = new ResponseCache(0, diskDir, entrySize * 5 / 2);
+        final RestClient a = newClient(cache, "a");
+        final RestClient b = newClient(cache, "b");
+        final RestClient c = newClient(cache, "c");
+        a.execute(a.newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        b.execute(b.newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        a.execute(a.newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        c.execute(c.newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        served.set(0);
+
+        a.execute(a.newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        assertEquals("a was read last, so b went", 0, served.get());
+        b.execute(b.newRequest(RequestMethod.GET).param("cc", "max-age=60").build());
+        assertEquals(1, served.get());
+    }
+
+    @Test
+    public void test_credentials_not_written_to_disk() throws Exception {
+        final RestClient client = newClient(new ResponseCache(1024 * 1024, diskDir, 1024 * 1024));
+        client.execute(client.newRequest(RequestMethod.GET).param("cc", "max-age=60").header("Authorization", "Bearer secret").build());
+
+        final File[] files = diskDir.listFiles();
+        assertEquals(1, files.length);
+        assertFalse(FileUtils.readFileToString(files[0], "UTF-8").contains("secret"));
+    }
+
+    private RestClient newClient(final ResponseCache cache) {
+        return newClient(cache, "");
+    }
+
+    private RestClient newClient(final ResponseCache cache, final String path) {
+        final RestClient client = new RestClient(server.getBaseUrl() + path, pool);
+        client.setResponseCache(cache);
+        return client;
+    }
+}
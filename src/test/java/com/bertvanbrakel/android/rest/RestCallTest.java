@@ -0,0 +1,142 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class RestCallTest {
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                try {
+                    Thread.sleep(Long.parseLong(req.getParameter("sleep")));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resp.getWriter().print("done");
+            }
+        }).start();
+        pool = new RestConnectionPool(1, 1, RestConnectionPool.DEFAULT_KEEP_ALIVE_MS);
+        client = new RestClient(server.getBaseUrl(), pool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_read_timeout() throws Exception {
+        client.setTimeouts(RestTimeouts.newBuilder().readTimeout(100, TimeUnit.MILLISECONDS).build());
+        try {
+            client.execute(sleep(2000).build());
+            fail("Expected a read timeout");
+        } catch (final RestReadTimeoutException e) {
+            // expected
+        }
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_request_deadline_overrides_client() throws Exception {
+        final RestRequest request = sleep(2000).timeouts(RestTimeouts.newBuilder().deadline(200, TimeUnit.MILLISECONDS).build()).build();
+        final long start = System.currentTimeMillis();
+        try {
+            client.execute(request);
+            fail("Expected the deadline to pass");
+        } catch (final RestDeadlineException e) {
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        }
+        assertEquals("done", client.execute(sleep(0).build()).getBody());
+    }
+
+    @Test
+    public void test_pool_timeout() throws Exception {
+        client.setTimeouts(RestTimeouts.newBuilder().poolTimeout(100, TimeUnit.MILLISECONDS).build());
+        final StreamingResponse held = client.executeStreaming(sleep(0).build());
+        try {
+            client.execute(sleep(0).build());
+            fail("Expected a pool timeout");
+        } catch (final RestPoolTimeoutException e) {
+            // expected
+        } finally {
+            held.close();
+        }
+    }
+
+    @Test
+    public void test_cancel_from_other_thread() throws Exception {
+        final RestCall call = client.newCall(sleep(5000).build());
+        cancelLater(call);
+        final long start = System.currentTimeMillis();
+        try {
+            call.execute();
+            fail("Expected the call to be cancelled");
+        } catch (final RestCancelledException e) {
+            assertTrue(System.currentTimeMillis() - start < 3000);
+        }
+        assertTrue(call.isCancelled());
+    }
+
+    @Test
+    public void test_cancel_async_future() throws Exception {
+        final Future<RestResponse> future = client.executeAsync(sleep(5000).build());
+        Thread.sleep(100);
+        future.cancel(true);
+        try {
+            future.get();
+            fail("Expected the future to be cancelled");
+        } catch (final CancellationException e) {
+            // expected
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RestCancelledException);
+        }
+        // connection was aborted rather than left to the slow server
+        assertEquals("done", client.execute(sleep(0).build()).getBody());
+    }
+
+    private RestRequest.Builder sleep(final long ms) {
+        return client.newRequest(RequestMethod.GET).param("sleep", Long.toString(ms));
+    }
+
+    private static void cancelLater(final RestCall call) {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                call.cancel();
+            }
+        }.start();
+    }
+}
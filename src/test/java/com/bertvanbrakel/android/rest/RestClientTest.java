@@ -0,0 +1,332 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class RestClientTest {
+
+    private static final int LARGE_SIZE = 1024 * 1024;
+
+    private TestServer server;
+    private RestConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/echo", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.getWriter().print("hello " + req.getParameter("name"));
+            }
+        }).addServlet("/large", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setContentType("application/octet-stream");
+                final byte[] chunk = new byte[1024];
+                for (int i = 0; i < LARGE_SIZE / chunk.length; i++) {
+                    resp.getOutputStream().write(chunk);
+                }
+            }
+        }).addServlet("/json", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setContentType("application/json; charset=UTF-8");
+                final int count = Integer.parseInt(req.getParameter("count"));
+                final PrintWriter w = resp.getWriter();
+                w.print('[');
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        w.print(',');
+                    }
+                    w.print("{\"id\":" + i + ",\"name\":\"item" + i + "\"}");
+                }
+                w.print(']');
+            }
+        }).addServlet("/upload", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.getWriter().print(req.getMethod() + " " + req.getHeader("Transfer-Encoding") + " " + req.getParameter("q") + " " + IOUtils.toString(req.getReader()));
+            }
+        }).addServlet("/multipart", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                final StringBuilder sb = new StringBuilder(req.getContentLength() < 0 ? "chunked" : "sized");
+                try {
+                    final FileItemIterator it = new ServletFileUpload().getItemIterator(req);
+                    while (it.hasNext()) {
+                        final FileItemStream item = it.next();
+                        sb.append(' ').append(item.getFieldName()).append('=').append(IOUtils.copyLarge(item.openStream(), new NullOutputStream()));
+                    }
+                } catch (final FileUploadException e) {
+                    throw new ServletException(e);
+                }
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.getWriter().print(sb);
+            }
+        }).addServlet("/gzip", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                InputStream in = req.getInputStream();
+                if ("gzip".equals(req.getHeader("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                final String body = IOUtils.toString(in, "UTF-8");
+                resp.setContentType("text/plain; charset=UTF-8");
+                final String accept = req.getHeader("Accept-Encoding");
+                if (accept == null || !accept.contains("gzip")) {
+                    resp.getWriter().print(body);
+                    return;
+                }
+                resp.setHeader("Content-Encoding", "gzip");
+                final GZIPOutputStream gzip = new GZIPOutputStream(resp.getOutputStream());
+                gzip.write(body.getBytes("UTF-8"));
+                gzip.finish();
+            }
+        }).start();
+        pool = new RestConnectionPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_get_response_as_string() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "echo", pool);
+        client.addParam("name", "b\u00f6b");
+        client.execute(RequestMethod.GET);
+
+        assertEquals(200, client.getResponseCode());
+        assertEquals("hello b\u00f6b", client.getResponse());
+    }
+
+    @Test
+    public void test_streaming_response_releases_connection_on_close() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "large", pool);
+        final StreamingResponse response = client.executeStreaming(RequestMethod.GET);
+        assertEquals(1, pool.getStats().getLeased());
+
+        final InputStream is = response.getInputStream();
+        final long read = IOUtils.copyLarge(is, new NullOutputStream());
+        is.close();
+
+        assertEquals(LARGE_SIZE, read);
+        assertEquals(0, pool.getStats().getLeased());
+        assertNull(client.getResponse());
+    }
+
+    @Test
+    public void test_response_handler() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "echo", pool);
+        client.addParam("name", "alice");
+        final String body = client.execute(RequestMethod.GET, new RestResponseHandler<String>() {
+            @Override
+            public String handle(final StreamingResponse response) throws IOException {
+                return IOUtils.toString(response.getReader());
+            }
+        });
+
+        assertEquals("hello alice", body);
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_async_requests_capture_params_at_submit() throws Exception {
+        final RestExecutor executor = new RestExecutor(4);
+        try {
+            final List<Future<RestResponse>> futures = new ArrayList<Future<RestResponse>>();
+            for (int i = 0; i < 20; i++) {
+                final RestClient client = new RestClient(server.getBaseUrl() + "echo", pool, executor);
+                client.addParam("name", "n" + i);
+                futures.add(client.executeAsync(RequestMethod.GET));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                final RestResponse response = futures.get(i).get();
+                assertEquals(200, response.getStatusCode());
+                assertEquals("hello n" + i, response.getBody());
+            }
+            assertEquals(0, executor.getInFlight());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_shared_client_with_immutable_requests() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "echo", pool);
+        final RestRequest request = client.newRequest(RequestMethod.GET).param("name", "first").build();
+        final RestRequest modified = request.toBuilder().param("name", "ignored").build();
+
+        assertEquals("hello first", client.execute(request).getBody());
+        assertEquals("hello first", client.execute(request).getBody());
+        assertEquals("hello first", client.execute(modified).getBody());
+        assertEquals(1, request.getParams().size());
+        assertEquals(0, client.getResponseCode());
+    }
+
+    @Test
+    public void test_json_deserialized_from_stream() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "json", pool);
+        final Item[] items = client.executeJson(client.newRequest(RequestMethod.GET).param("count", 3).build(), Item[].class);
+
+        assertEquals(3, items.length);
+        assertEquals(2, items[2].id);
+        assertEquals("item2", items[2].name);
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_json_array_iterated_element_by_element() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "json", pool);
+        final JsonArrayIterator<Item> it = client.executeJsonArray(client.newRequest(RequestMethod.GET).param("count", 10000).build(), Item.class);
+        int count = 0;
+        try {
+            while (it.hasNext()) {
+                assertEquals(count, it.next().id);
+                count++;
+            }
+        } finally {
+            it.close();
+        }
+        assertEquals(10000, count);
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_json_array_closed_early_releases_connection() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "json", pool);
+        final JsonArrayIterator<Item> it = client.executeJsonArray(client.newRequest(RequestMethod.GET).param("count", 100000).build(), Item.class);
+        assertEquals(0, it.next().id);
+        it.close();
+        assertEquals(0, pool.getStats().getLeased());
+    }
+
+    @Test
+    public void test_json_body_streamed_chunked() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "upload", pool);
+        final Item item = new Item();
+        item.id = 7;
+        item.name = "seven";
+
+        final RestRequest post = client.newRequest(RequestMethod.POST).param("q", "x").jsonBody(item).build();
+        assertEquals("POST chunked x {\"id\":7,\"name\":\"seven\"}", client.execute(post).getBody());
+
+        final RestRequest put = client.newRequest(RequestMethod.PUT).jsonBody(item).build();
+        assertEquals("PUT chunked null {\"id\":7,\"name\":\"seven\"}", client.execute(put).getBody());
+    }
+
+    @Test
+    public void test_gzip_request_and_response() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "gzip", pool);
+        final String text = StringUtils.repeat("compress me ", 1000);
+
+        final RestRequest post = client.newRequest(RequestMethod.POST).body(new StringEntity(text, "UTF-8")).compressBody(true).build();
+        final RestResponse response = client.execute(post);
+
+        assertEquals(text, response.getBody());
+        assertNull(response.getHeaderValue("Content-Encoding").asString());
+        final TransferStats stats = response.getTransferStats();
+        assertEquals(text.length(), stats.getRequestBytes());
+        assertTrue(stats.getRequestWireBytes() < stats.getRequestBytes() / 10);
+        assertEquals(text.length(), stats.getResponseBytes());
+        assertTrue(stats.getResponseWireBytes() < stats.getResponseBytes() / 10);
+    }
+
+    @Test
+    public void test_gzip_request_content_can_be_read() throws Exception {
+        final HttpPost post = new HttpPost(server.getBaseUrl());
+        post.setEntity(new StringEntity("compress me", "UTF-8"));
+        ContentCoding.encodeRequest(post, true, new ContentCoding.TransferCounter());
+
+        assertEquals("compress me", IOUtils.toString(new GZIPInputStream(post.getEntity().getContent()), "UTF-8"));
+    }
+
+    @Test
+    public void test_compression_can_be_disabled() throws Exception {
+        final RestClient client = new RestClient(server.getBaseUrl() + "gzip", pool);
+        client.setAcceptCompressed(false);
+
+        final RestResponse response = client.execute(client.newRequest(RequestMethod.POST).body(new StringEntity("plain", "UTF-8")).build());
+
+        assertEquals("plain", response.getBody());
+        assertEquals(5, response.getTransferStats().getRequestWireBytes());
+        assertEquals(5, response.getTransferStats().getResponseWireBytes());
+    }
+
+    @Test
+    public void test_file_and_stream_uploads() throws Exception {
+        final File file = File.createTempFile("RestClientTest", ".bin");
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(3 * LARGE_SIZE);
+            raf.close();
+            final RestClient client = new RestClient(server.getBaseUrl() + "multipart", pool);
+
+            final RestRequest sized = client.newRequest(RequestMethod.POST)
+                    .param("file", file)
+                    .param("stream", new ByteArrayInputStream(new byte[1000]), 1000)
+                    .build();
+            assertEquals("sized file=" + 3 * LARGE_SIZE + " stream=1000", client.execute(sized).getBody());
+
+            final RestRequest chunked = client.newRequest(RequestMethod.POST)
+                    .param("stream", new ByteArrayInputStream(new byte[1000]), -1)
+                    .build();
+            assertEquals("chunked stream=1000", client.execute(chunked).getBody());
+        } finally {
+            file.delete();
+        }
+    }
+
+    static class Item {
+        int id;
+        String name;
+    }
+}
@@ -0,0 +1,70 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class RestConnectionPoolTest {
+
+    private TestServer server;
+    private String baseUrl;
+    private RestConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setContentType("text/plain");
+                resp.getWriter().print("hello " + req.getParameter("name"));
+            }
+        }).start();
+        baseUrl = server.getBaseUrl();
+        pool = new RestConnectionPool(4, 2, RestConnectionPool.DEFAULT_KEEP_ALIVE_MS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_connection_is_reused_between_requests() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            final RestClient client = new RestClient(baseUrl, pool);
+            client.addParam("name", "bob" + i);
+            client.execute(RequestMethod.GET);
+            assertEquals("hello bob" + i, client.getResponse());
+
+            final RestConnectionPool.Stats stats = pool.getStats();
+            assertEquals(0, stats.getLeased());
+            assertEquals(1, stats.getAvailable());
+            assertEquals(0, stats.getPending());
+        }
+    }
+
+    @Test
+    public void test_idle_connections_closed() throws Exception {
+        final RestClient client = new RestClient(baseUrl, pool);
+        client.execute(RequestMethod.GET);
+        assertEquals(1, pool.getStats().getAvailable());
+
+        pool.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        assertEquals(0, pool.getStats().getAvailable());
+    }
+}
@@ -0,0 +1,193 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+import com.bertvanbrakel.android.rest.RestRequest.Priority;
+
+public class RestDispatcherTest {
+
+    /** Requests in the order the server saw them */
+    private final List<String> seen = new CopyOnWriteArrayList<String>();
+    /** One permit lets one request complete */
+    private final Semaphore proceed = new Semaphore(0);
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestExecutor executor;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                seen.add(req.getParameter("id"));
+                try {
+                    proceed.acquire();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resp.getWriter().print(req.getParameter("id"));
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        executor = new RestExecutor();
+        client = new RestClient(server.getBaseUrl(), pool, executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        proceed.release(100);
+        executor.shutdown();
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_per_host_limit() throws Exception {
+        final RestDispatcher dispatcher = new RestDispatcher(10, 2);
+        client.setDispatcher(dispatcher);
+        final List<Future<RestResponse>> futures = new ArrayList<Future<RestResponse>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(submit(server.getBaseUrl(), "r" + i, Priority.INTERACTIVE));
+        }
+        awaitQueued(dispatcher, 3);
+        assertEquals(2, dispatcher.getStats().getRunning());
+
+        proceed.release(5);
+        for (final Future<RestResponse> f : futures) {
+            assertEquals(200, f.get().getStatusCode());
+        }
+        final RestDispatcher.Stats stats = dispatcher.getStats();
+        assertEquals(0, stats.getRunning());
+        assertEquals(0, stats.getQueued());
+        assertEquals(5, stats.getWaitTimes().get(Priority.INTERACTIVE).getCount());
+    }
+
+    @Test
+    public void test_background_leaves_a_slot_for_interactive() throws Exception {
+        final RestDispatcher dispatcher = new RestDispatcher(10, 2);
+        client.setDispatcher(dispatcher);
+        submit(server.getBaseUrl(), "bulk1", Priority.BACKGROUND);
+        awaitSeen(1);
+        submit(server.getBaseUrl(), "bulk2", Priority.BACKGROUND);
+        awaitQueued(dispatcher, 1);
+        assertEquals(1, dispatcher.getStats().getRunning());
+
+        final Future<RestResponse> interactive = submit(server.getBaseUrl(), "click", Priority.INTERACTIVE);
+        awaitSeen(2);
+        assertEquals("[bulk1, click]", seen.toString());
+        proceed.release(3);
+        assertEquals("click", interactive.get().getBody());
+    }
+
+    @Test
+    public void test_hosts_take_turns() throws Exception {
+        // the same server by two names
+        final String hostA = server.getBaseUrl();
+        final String hostB = hostA.replace("localhost", "127.0.0.1");
+        final RestDispatcher dispatcher = new RestDispatcher(1, 1);
+        client.setDispatcher(dispatcher);
+
+        submit(hostA, "a1", Priority.INTERACTIVE);
+        awaitSeen(1);
+        submit(hostA, "a2", Priority.INTERACTIVE);
+        awaitQueued(dispatcher, 1);
+        submit(hostA, "a3", Priority.INTERACTIVE);
+        awaitQueued(dispatcher, 2);
+        submit(hostB, "b1", Priority.INTERACTIVE);
+        awaitQueued(dispatcher, 3);
+
+        for (int i = 2; i <= 4; i++) {
+            proceed.release();
+            awaitSeen(i);
+        }
+        assertEquals("[a1, a2, b1, a3]", seen.toString());
+    }
+
+    @Test
+    public void test_cancel_while_queued() throws Exception {
+        final RestDispatcher dispatcher = new RestDispatcher(1, 1);
+        client.setDispatcher(dispatcher);
+        client.setCircuitBreaker(new CircuitBreaker(1, 60000));
+        submit(server.getBaseUrl(), "first", Priority.INTERACTIVE);
+        awaitSeen(1);
+        final Future<RestResponse> queued = submit(server.getBaseUrl(), "second", Priority.INTERACTIVE);
+        awaitQueued(dispatcher, 1);
+
+        queued.cancel(true);
+        try {
+            queued.get();
+            fail("Expected cancel");
+        } catch (final CancellationException e) {
+            // expected
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RestCancelledException);
+        }
+        awaitQueued(dispatcher, 0);
+        proceed.release();
+        assertEquals("[first]", seen.toString());
+    }
+
+    @Test
+    public void test_queue_wait_times_out() throws Exception {
+        final RestDispatcher dispatcher = new RestDispatcher(1, 1);
+        client.setDispatcher(dispatcher);
+        client.setCircuitBreaker(new CircuitBreaker(1, 60000));
+        submit(server.getBaseUrl(), "first", Priority.INTERACTIVE);
+        awaitSeen(1);
+        final RestRequest request = RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl()).param("id", "late")
+                .timeouts(RestTimeouts.newBuilder().poolTimeout(100, TimeUnit.MILLISECONDS).build()).build();
+        try {
+            client.execute(request);
+            fail("Expected to time out in the queue");
+        } catch (final RestPoolTimeoutException e) {
+            // expected
+        }
+        assertEquals(0, dispatcher.getStats().getQueued());
+        // a full queue says nothing about the host
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState(request.toHttpRequest(client.getGson()).getURI().getAuthority()));
+    }
+
+    private Future<RestResponse> submit(final String url, final String id, final Priority priority) {
+        return client.executeAsync(RestRequest.newBuilder(RequestMethod.GET, url).param("id", id).priority(priority).build());
+    }
+
+    private static void awaitQueued(final RestDispatcher dispatcher, final int queued) throws InterruptedException {
+        for (int i = 0; i < 500 && dispatcher.getStats().getQueued() != queued; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(queued, dispatcher.getStats().getQueued());
+    }
+
+    private void awaitSeen(final int count) throws InterruptedException {
+        for (int i = 0; i < 500 && seen.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(seen.toString(), seen.size() >= count);
+    }
+}
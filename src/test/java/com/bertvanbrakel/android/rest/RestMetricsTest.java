@@ -0,0 +1,144 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.HttpStatus.StatusClass;
+import com.bertvanbrakel.android.rest.RequestTimings.Outcome;
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class RestMetricsTest {
+
+    private final List<RequestTimings> timings = Collections.synchronizedList(new ArrayList<RequestTimings>());
+    private final RestMetrics metrics = new RestMetrics();
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/*", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                if (req.getRequestURI().endsWith("missing")) {
+                    resp.sendError(404);
+                    return;
+                }
+                resp.getWriter().print("hello");
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+        client.setListener(new RestListener() {
+            @Override
+            public void onRequestEnd(final RequestTimings t) {
+                timings.add(t);
+                metrics.onRequestEnd(t);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_timings_and_metrics() throws Exception {
+        client.execute(client.newRequest(RequestMethod.GET).build());
+        client.execute(client.newRequest(RequestMethod.GET).build());
+        client.execute(RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "missing").build());
+        final StreamingResponse streaming = client.executeStreaming(client.newRequest(RequestMethod.GET).build());
+        assertEquals("hello", IOUtils.toString(streaming.getReader()));
+        streaming.close();
+
+        assertEquals(4, timings.size());
+        final RequestTimings first = timings.get(0);
+        assertEquals(Outcome.SUCCESS, first.getOutcome());
+        assertEquals(HttpStatus.OK, first.getStatus());
+        assertTrue(first.getDnsNanos() >= 0);
+        assertTrue(first.getConnectNanos() >= 0);
+        assertTrue(first.getPoolAcquireNanos() >= 0);
+        assertTrue(first.getFirstByteNanos() <= first.getTotalNanos());
+        assertEquals(first.getTotalNanos(), first.getFirstByteNanos() + first.getBodyReadNanos());
+        // the second reuses the connection
+        assertEquals(-1, timings.get(1).getConnectNanos());
+        assertEquals(Outcome.HTTP_ERROR, timings.get(2).getOutcome());
+
+        final RestMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.getRequests());
+        assertEquals(3L, (long) snapshot.getOutcomes().get(Outcome.SUCCESS));
+        assertEquals(4, snapshot.getByHost().get(first.getHost()).getCount());
+        assertEquals(3, snapshot.getByStatusClass().get(StatusClass.SUCCESS).getCount());
+        assertEquals(1, snapshot.getByStatusClass().get(StatusClass.CLIENT_ERROR).getCount());
+        assertEquals(1, snapshot.getConnect().getCount());
+        assertEquals(4, snapshot.getPoolAcquire().getCount());
+        assertEquals(15, snapshot.getBytesReceived() - timings.get(2).getTransferStats().getResponseWireBytes());
+    }
+
+    @Test
+    public void test_failure_recorded() throws Exception {
+        final String url = server.getBaseUrl();
+        server.stop();
+        try {
+            client.execute(RestRequest.newBuilder(RequestMethod.GET, url).build());
+            fail("Expected the connect to fail");
+        } catch (final RestClientException e) {
+            // expected
+        }
+        assertEquals(Outcome.FAILED, timings.get(0).getOutcome());
+        assertEquals(-1, timings.get(0).getStatusCode());
+        assertEquals(1, metrics.snapshot().getByStatusClass().get(StatusClass.UNKNOWN).getCount());
+    }
+
+    @Test
+    public void test_histogram_percentiles() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000);
+        }
+        final LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(1000, s.getCount());
+        assertEquals(1000000, s.getMaxMicros());
+        assertWithin(500000, s.getPercentileMicros(50));
+        assertWithin(990000, s.getPercentileMicros(99));
+        assertEquals(1000000, s.getPercentileMicros(100));
+    }
+
+    @Test
+    public void test_jmx() throws Exception {
+        client.execute(client.newRequest(RequestMethod.GET).build());
+        final ObjectName name = RestMetricsJmx.register(metrics, "test");
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Requests"));
+        } finally {
+            RestMetricsJmx.unregister(name);
+        }
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(expected + " vs " + actual, Math.abs(actual - expected) <= expected / 4);
+    }
+}
@@ -0,0 +1,197 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+/**
+ * The same requests through each {@link RestTransport}
+ */
+@RunWith(Parameterized.class)
+public class RestTransportTest {
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][] { { "apache" }, { "urlconnection" } });
+    }
+
+    private final String transportName;
+
+    private TestServer server;
+    private RestConnectionPool pool;
+    private RestClient client;
+
+    public RestTransportTest(final String transportName) {
+        this.transportName = transportName;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer().addServlet("/echo", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                final String contentType = req.getContentType();
+                final String body;
+                if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                    body = "form:" + req.getParameter("name");
+                } else {
+                    body = IOUtils.toString(new InputStreamReader(req.getInputStream(), "UTF-8"));
+                }
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.getWriter().print(req.getMethod() + " " + req.getQueryString() + " " + req.getHeader("X-Test") + " " + body);
+            }
+        }).addServlet("/gzip", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setContentType("text/plain; charset=UTF-8");
+                resp.setHeader("Content-Encoding", "gzip");
+                final Writer out = new OutputStreamWriter(new GZIPOutputStream(resp.getOutputStream()), "UTF-8");
+                out.write(StringUtils.repeat("compressed hello ", 100));
+                out.close();
+            }
+        }).addServlet("/missing", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                resp.setStatus(404);
+                resp.getWriter().print("not here");
+            }
+        }).addServlet("/slow", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resp.getWriter().print("late");
+            }
+        }).start();
+        pool = new RestConnectionPool();
+        client = new RestClient(server.getBaseUrl(), pool);
+        if ("urlconnection".equals(transportName)) {
+            client.setTransport(new UrlConnectionTransport());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void test_get_with_params_and_headers() throws Exception {
+        final RestResponse response = client.execute(RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "echo").param("q", "a b")
+                .header("X-Test", "yes").build());
+        assertEquals(200, response.getStatusCode());
+        assertEquals("GET q=a+b yes ", response.getBody());
+    }
+
+    @Test
+    public void test_post_form_and_json() throws Exception {
+        final RestRequest form = RestRequest.newBuilder(RequestMethod.POST, server.getBaseUrl() + "echo").param("name", "bob").build();
+        assertEquals("POST null null form:bob", client.execute(form).getBody());
+
+        final RestRequest json = RestRequest.newBuilder(RequestMethod.PUT, server.getBaseUrl() + "echo").jsonBody(Arrays.asList(1, 2)).build();
+        assertEquals("PUT null null [1,2]", client.execute(json).getBody());
+    }
+
+    @Test
+    public void test_multipart() throws Exception {
+        final RestRequest request = RestRequest.newBuilder(RequestMethod.POST, server.getBaseUrl() + "echo").param("file", "binary data".getBytes("UTF-8"))
+                .build();
+        assertTrue(client.execute(request).getBody().contains("binary data"));
+    }
+
+    @Test
+    public void test_compressed_response() throws Exception {
+        final RestResponse response = client.execute(RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "gzip").build());
+        assertEquals(StringUtils.repeat("compressed hello ", 100), response.getBody());
+        assertTrue(response.getTransferStats().getResponseWireBytes() < response.getTransferStats().getResponseBytes());
+    }
+
+    @Test
+    public void test_error_body() throws Exception {
+        final RestResponse response = client.execute(RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "missing").build());
+        assertEquals(404, response.getStatusCode());
+        assertEquals("not here", response.getBody());
+    }
+
+    @Test
+    public void test_streaming() throws Exception {
+        final StreamingResponse response = client.executeStreaming(RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "echo").build());
+        try {
+            assertEquals("GET null null ", IOUtils.toString(response.getReader()));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void test_read_timeout() throws Exception {
+        final RestRequest request = RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "slow")
+                .timeouts(RestTimeouts.newBuilder().readTimeout(200, TimeUnit.MILLISECONDS).build()).build();
+        try {
+            client.execute(request);
+            fail("Expected a read timeout");
+        } catch (final RestReadTimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_cancel() throws Exception {
+        final RestCall call = client.newCall(RestRequest.newBuilder(RequestMethod.GET, server.getBaseUrl() + "slow").build());
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (final InterruptedException e) {
+                    // cancel now
+                }
+                call.cancel();
+            }
+        }.start();
+        final long start = System.currentTimeMillis();
+        try {
+            call.execute();
+            fail("Expected cancel");
+        } catch (final RestCancelledException e) {
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.bertvanbrakel.android.rest;
+
+import javax.servlet.http.HttpServlet;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Embedded jetty server on a free port for the rest client tests
+ */
+public class TestServer {
+
+    private final Server server = new Server();
+    private final SelectChannelConnector connector = new SelectChannelConnector();
+    private final ServletContextHandler context = new ServletContextHandler();
+
+    public TestServer() {
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(context);
+    }
+
+    public TestServer addServlet(final String pathSpec, final HttpServlet servlet) {
+        context.addServlet(new ServletHolder(servlet), pathSpec);
+        return this;
+    }
+
+    public TestServer start() throws Exception {
+        server.start();
+        return this;
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * @return the base url including the trailing slash
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + connector.getLocalPort() + "/";
+    }
+}
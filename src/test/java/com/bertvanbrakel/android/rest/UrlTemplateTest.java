@@ -0,0 +1,61 @@
+package com.bertvanbrakel.android.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bertvanbrakel.android.rest.RestClient.RequestMethod;
+
+public class UrlTemplateTest {
+
+    @Test
+    public void test_query_encoding_matches_url_encoder() throws Exception {
+        final String[] values = { "", "plain", "a b&c=d", "100%", "~*._-+/?#", "café", "€1", "😀",
+                "bad\ud83dsurrogate", "\u0000\u007f" };
+        for (final String v : values) {
+            final String encoded = UrlEncoding.appendQuery(new StringBuilder(), v).toString();
+            assertEquals(v, URLEncoder.encode(v, "UTF-8"), encoded);
+        }
+    }
+
+    @Test
+    public void test_expand() {
+        final UrlTemplate template = UrlTemplate.compile("http://host/users/{id}/items?q={query}&page={page}");
+        assertEquals("[id, query, page]", template.getNames().toString());
+        assertEquals("http://host/users/a%2Fb%20c/items?q=a%2Fb+c&page=2", template.expand("a/b c", "a/b c", 2));
+
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("id", 7);
+        values.put("query", "x");
+        values.put("page", 1);
+        assertEquals("http://host/users/7/items?q=x&page=1", template.expand(values));
+    }
+
+    @Test
+    public void test_expand_missing_value() {
+        final UrlTemplate template = UrlTemplate.compile("http://host/{a}/{b}");
+        try {
+            template.expand("1");
+            fail("Expected too few values to fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            template.expand(new HashMap<String, Object>());
+            fail("Expected a missing value to fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_request_params_appended_to_template_query() throws Exception {
+        final RestRequest request = UrlTemplate.compile("http://host/items?type={type}").newRequest(RequestMethod.GET, "a b").param("n", "x&y").build();
+        assertEquals("http://host/items?type=a+b&n=x%26y", request.toHttpRequest(null).getURI().toString());
+    }
+}